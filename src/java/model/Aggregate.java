@@ -0,0 +1,48 @@
+package model;
+
+/**
+ * Count, sum, min and max of the entry measures in a query range
+ * An empty range has a count of 0, min of +infinity and max of -infinity
+ */
+public class Aggregate {
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public long getCount() {return count;}
+    public double getSum() {return sum;}
+    public double getMin() {return min;}
+    public double getMax() {return max;}
+
+    /**
+     * Average measure, NaN if nothing is in range
+     */
+    public double getMean() {return count == 0 ? Double.NaN : sum / count;}
+
+    /**
+     * Adds a single entry
+     */
+    void add(RTreeEntry e) {
+        double measure = e.getMeasure();
+        ++count;
+        sum += measure;
+        min = Math.min(min, measure);
+        max = Math.max(max, measure);
+    }
+
+    /**
+     * Adds a whole subtree from the aggregates kept in its root
+     */
+    void add(RTreeNode<?> n) {
+        count += n.getNumEntries();
+        sum += n.getMeasureSum();
+        min = Math.min(min, n.getMeasureMin());
+        max = Math.max(max, n.getMeasureMax());
+    }
+
+    @Override
+    public String toString() {
+        return "Aggregate{count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max + "}";
+    }
+}
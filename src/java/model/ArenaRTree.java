@@ -0,0 +1,595 @@
+package model;
+
+import java.util.*;
+
+/**
+ * An R-Tree with the same insert/delete/search API as model.RTree,
+ * but all nodes live in flat primitive arrays (an arena) instead of one RTreeNode object each.
+ *
+ * A node is just an int index into the arrays below, children and entries are int slots,
+ * and the coordinates of every entry are copied into a double[] once on insertion,
+ * so search and chooseLeaf only ever touch primitive arrays.
+ *
+ * Freed nodes and entry slots are recycled through free lists, the arrays only grow.
+ * Like model.RTree, searches can run on many threads at once, but nothing can while it is being changed.
+ *
+ * @param <T> the Entry to store in the tree.
+ */
+public class ArenaRTree<T extends RTreeEntry> {
+    private static final int NIL = -1;
+
+    private final int maxEntries;
+    private final int minEntries;
+
+    private final int maxChildren;
+    private final int minChildren;
+    private final int numDims;
+
+    // Number of slots per node, one extra so that a node can overflow before it is split
+    private final int stride;
+
+    // Node arena, indexed by node
+    private double[] bounds;   // [node * 2 * numDims + 2 * dim] is the min, +1 is the max
+    private int[] slots;       // [node * stride + i] is the i-th child node or entry
+    private int[] counts;      // Number of used slots
+    private int[] parents;     // Parent node, NIL for the root
+    private boolean[] leaves;
+    private int numNodes;      // High water mark of the node arena
+    private int[] freeNodes = new int[16];
+    private int numFreeNodes;
+
+    // Entry arena, indexed by entry
+    private Object[] entries;
+    private double[] coords;   // [entry * numDims + dim]
+    private int numEntrySlots; // High water mark of the entry arena
+    private int[] freeEntries = new int[16];
+    private int numFreeEntries;
+
+    private int root;
+    private int size;
+
+    // Reusable scratch space so that the writers' traversals and splits do not allocate, searches keep their own
+    private int[] stack = new int[64];
+    private final int[] splitItems;
+    private final double[] splitBoxes;
+    private final int[] splitGroups;
+    private final double[][] groupBoxes;
+
+    public ArenaRTree(int maxEntries, int minEntries, int maxChildren, int numDims) {
+        if (minEntries * 2 > maxEntries) throw new IllegalArgumentException("minEntries太大");
+        if (maxChildren < 2) throw new IllegalArgumentException("maxChildren太小");
+        this.numDims = numDims;
+        this.maxEntries = maxEntries;
+        this.minEntries = minEntries;
+        this.maxChildren = maxChildren;
+        this.minChildren = Math.max(1, maxChildren * 2 / 5);
+        this.stride = Math.max(maxEntries, maxChildren) + 1;
+
+        int initialNodes = 16;
+        bounds = new double[initialNodes * 2 * numDims];
+        slots = new int[initialNodes * stride];
+        counts = new int[initialNodes];
+        parents = new int[initialNodes];
+        leaves = new boolean[initialNodes];
+
+        entries = new Object[64];
+        coords = new double[64 * numDims];
+
+        splitItems = new int[stride];
+        splitBoxes = new double[stride * 2 * numDims];
+        splitGroups = new int[stride];
+        groupBoxes = new double[2][2 * numDims];
+
+        root = allocNode(true, NIL);
+    }
+
+    /**
+     * Same shape as model.RTree, which has an internal fanout of 2
+     */
+    public ArenaRTree(int maxEntries, int minEntries, int numDims) {this(maxEntries, minEntries, 2, numDims);}
+
+    /**
+     * Default Constructor
+     * (Basically a segment tree)
+     */
+    public ArenaRTree() {this(1, 0, 1);}
+
+    public int size() {return size;}
+
+    public void clear() {
+        numNodes = numFreeNodes = 0;
+        numEntrySlots = numFreeEntries = 0;
+        Arrays.fill(entries, null); // Let the entries be collected
+        size = 0;
+        root = allocNode(true, NIL);
+    }
+
+    /**
+     * Searches the tree for objects in query range
+     * @return list of entries of objects in query range
+     */
+    public List<T> search(Range<Double>[] ranges) {
+        if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+
+        // Unbox the query once
+        double[] query = new double[2 * numDims];
+        for (int dim = 0; dim < numDims; ++dim) {
+            query[2 * dim] = ranges[dim].getMin();
+            query[2 * dim + 1] = ranges[dim].getMax();
+        }
+
+        ArrayList<T> results = new ArrayList<>();
+        int[] stack = new int[64]; // Its own, so searches from many threads at once do not trample each other
+        int top = 0;
+        stack[top++] = root;
+
+        while (top > 0) {
+            int n = stack[--top];
+
+            if (leaves[n]) {
+                for (int i = 0; i < counts[n]; ++i) {
+                    int e = slots[n * stride + i];
+                    if (pointInBox(query, 0, e)) results.add(entry(e));
+                }
+                continue;
+            }
+
+            // Push every child whose domain overlaps the query
+            if (top + counts[n] > stack.length) stack = Arrays.copyOf(stack, Math.max(2 * stack.length, top + counts[n]));
+            for (int i = 0; i < counts[n]; ++i) {
+                int c = slots[n * stride + i];
+                if (overlaps(query, c)) stack[top++] = c;
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Inserting an entry into the tree
+     */
+    public void insert(T entry) {
+        if (entry.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+
+        int e = allocEntry(entry);
+        place(e);
+        ++size;
+    }
+
+    /**
+     * Deletes the entry from the tree
+     * @param entry the entry to delete
+     * @return true if the entry was deleted
+     */
+    public boolean delete(T entry) {
+        if (entry.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+
+        // Find the leaf and the slot holding the entry
+        int top = 0;
+        stack[top++] = root;
+        int leaf = NIL, slot = NIL;
+
+        search:
+        while (top > 0) {
+            int n = stack[--top];
+
+            if (leaves[n]) {
+                for (int i = 0; i < counts[n]; ++i) {
+                    if (!entry.equals(entries[slots[n * stride + i]])) continue;
+                    leaf = n;
+                    slot = i;
+                    break search;
+                }
+                continue;
+            }
+
+            ensureStack(top + counts[n]);
+            for (int i = 0; i < counts[n]; ++i) {
+                int c = slots[n * stride + i];
+                if (boxContains(c, entry)) stack[top++] = c;
+            }
+        }
+
+        if (leaf == NIL) throw new IllegalStateException("找不到树叶");
+
+        // Entry found, kill it now
+        int e = slots[leaf * stride + slot];
+        removeSlot(leaf, slot);
+        freeEntry(e);
+        --size;
+
+        condenseTree(leaf);
+        return true;
+    }
+
+    /**
+     * Puts an allocated entry into the best leaf, splitting as required
+     */
+    private void place(int e) {
+        int leaf = chooseLeaf(e);
+        slots[leaf * stride + counts[leaf]++] = e;
+
+        // It is time to die leaf, you are too fat
+        if (counts[leaf] > maxEntries) splitUpwards(leaf);
+        else enlargeUpwards(leaf, e);
+    }
+
+    /**
+     * Selects the best leaf to insert the given entry, by least area expansion then least area
+     */
+    private int chooseLeaf(int e) {
+        int n = root;
+
+        while (!leaves[n]) {
+            int next = NIL;
+            double minInc = Double.MAX_VALUE, bestArea = Double.MAX_VALUE;
+
+            for (int i = 0; i < counts[n]; ++i) {
+                int c = slots[n * stride + i];
+                double area = area(bounds, c * 2 * numDims);
+                double inc = expandedArea(c, e) - area;
+
+                if (inc > minInc || (inc == minInc && area >= bestArea)) continue;
+                next = c;
+                minInc = inc;
+                bestArea = area;
+            }
+
+            if (next == NIL) throw new IllegalStateException("没有适合的孩子");
+            n = next;
+        }
+
+        return n;
+    }
+
+    /**
+     * Grows the ancestors of n (inclusive) until one of them already contains entry e
+     */
+    private void enlargeUpwards(int n, int e) {
+        for (; n != NIL; n = parents[n]) {
+            int b = n * 2 * numDims, c = e * numDims;
+            boolean grown = false;
+
+            for (int dim = 0; dim < numDims; ++dim) {
+                if (coords[c + dim] < bounds[b + 2 * dim]) { bounds[b + 2 * dim] = coords[c + dim]; grown = true; }
+                if (coords[c + dim] > bounds[b + 2 * dim + 1]) { bounds[b + 2 * dim + 1] = coords[c + dim]; grown = true; }
+            }
+
+            // Everything above already contains the entry
+            if (!grown) return;
+        }
+    }
+
+    /**
+     * Splits n and every overflowing ancestor, then tightens the rest of the path
+     */
+    private void splitUpwards(int n) {
+        while (counts[n] > (leaves[n] ? maxEntries : maxChildren)) {
+            int sibling = splitNode(n);
+            int p = parents[n];
+
+            if (p == NIL) {
+                // Root got split, grow the tree
+                root = allocNode(false, NIL);
+                slots[root * stride] = n;
+                slots[root * stride + 1] = sibling;
+                counts[root] = 2;
+                parents[n] = parents[sibling] = root;
+                recomputeBounds(root);
+                return;
+            }
+
+            slots[p * stride + counts[p]++] = sibling;
+            parents[sibling] = p;
+            n = p;
+        }
+
+        for (; n != NIL; n = parents[n]) recomputeBounds(n);
+    }
+
+    /**
+     * Quadratic split of n, the second half goes into a new sibling which is returned
+     * ! The node itself is recycled as the first half
+     */
+    private int splitNode(int n) {
+        boolean leaf = leaves[n];
+        int count = counts[n];
+        int box = 2 * numDims;
+
+        // Copy the items and their boxes into the scratch space
+        for (int i = 0; i < count; ++i) {
+            int item = slots[n * stride + i];
+            splitItems[i] = item;
+
+            if (leaf) for (int dim = 0; dim < numDims; ++dim) {
+                splitBoxes[i * box + 2 * dim] = coords[item * numDims + dim];
+                splitBoxes[i * box + 2 * dim + 1] = coords[item * numDims + dim];
+            }
+            else System.arraycopy(bounds, item * box, splitBoxes, i * box, box);
+        }
+
+        quadraticSplit(count, leaf ? minEntries : minChildren);
+
+        // Redistribute, the first group stays in n
+        int sibling = allocNode(leaf, parents[n]);
+        counts[n] = 0;
+        for (int i = 0; i < count; ++i) {
+            int target = splitGroups[i] == 0 ? n : sibling;
+            slots[target * stride + counts[target]++] = splitItems[i];
+            if (!leaf) parents[splitItems[i]] = target;
+        }
+
+        recomputeBounds(n);
+        recomputeBounds(sibling);
+        return sibling;
+    }
+
+    /**
+     * Guttman's quadratic split over the scratch boxes, writes 0 or 1 into splitGroups
+     */
+    private void quadraticSplit(int count, int min) {
+        int box = 2 * numDims;
+
+        // Pick the seeds, the pair wasting the most area when put together
+        int s0 = 0, s1 = 1;
+        double worst = -Double.MAX_VALUE;
+        for (int i = 0; i < count; ++i) for (int j = i + 1; j < count; ++j) {
+            double waste = unionArea(splitBoxes, i * box, splitBoxes, j * box)
+                    - area(splitBoxes, i * box) - area(splitBoxes, j * box);
+            if (waste <= worst) continue;
+            worst = waste;
+            s0 = i;
+            s1 = j;
+        }
+
+        Arrays.fill(splitGroups, 0, count, NIL);
+        splitGroups[s0] = 0;
+        splitGroups[s1] = 1;
+        System.arraycopy(splitBoxes, s0 * box, groupBoxes[0], 0, box);
+        System.arraycopy(splitBoxes, s1 * box, groupBoxes[1], 0, box);
+        int[] sizes = {1, 1};
+        int remaining = count - 2;
+
+        while (remaining > 0) {
+            // Dump everything into a group if it needs all of it to meet min
+            for (int g = 0; g < 2; ++g) if (sizes[g] + remaining == min) {
+                for (int i = 0; i < count; ++i) if (splitGroups[i] == NIL) splitGroups[i] = g;
+                return;
+            }
+
+            // Pick the item with the strongest preference for one group
+            int next = NIL;
+            double d0 = 0, d1 = 0, bestDiff = -1;
+            for (int i = 0; i < count; ++i) if (splitGroups[i] == NIL) {
+                double e0 = unionArea(groupBoxes[0], 0, splitBoxes, i * box) - area(groupBoxes[0], 0);
+                double e1 = unionArea(groupBoxes[1], 0, splitBoxes, i * box) - area(groupBoxes[1], 0);
+                if (Math.abs(e0 - e1) <= bestDiff) continue;
+                bestDiff = Math.abs(e0 - e1);
+                next = i;
+                d0 = e0;
+                d1 = e1;
+            }
+
+            // Smaller expansion, then smaller area, then fewer items
+            int g;
+            if (d0 != d1) g = d0 < d1 ? 0 : 1;
+            else if (area(groupBoxes[0], 0) != area(groupBoxes[1], 0)) g = area(groupBoxes[0], 0) < area(groupBoxes[1], 0) ? 0 : 1;
+            else g = sizes[0] <= sizes[1] ? 0 : 1;
+
+            splitGroups[next] = g;
+            ++sizes[g];
+            --remaining;
+            for (int dim = 0; dim < numDims; ++dim) {
+                groupBoxes[g][2 * dim] = Math.min(groupBoxes[g][2 * dim], splitBoxes[next * box + 2 * dim]);
+                groupBoxes[g][2 * dim + 1] = Math.max(groupBoxes[g][2 * dim + 1], splitBoxes[next * box + 2 * dim + 1]);
+            }
+        }
+    }
+
+    /**
+     * Tree Compression from leaf n up to the root
+     * Underflowing nodes are cut off and their entries are inserted back
+     */
+    private void condenseTree(int n) {
+        int[] orphans = new int[0];
+        int numOrphans = 0;
+
+        while (n != root) {
+            int p = parents[n];
+
+            if (counts[n] < (leaves[n] ? minEntries : minChildren)) {
+                // Cut the node off and collect every entry below it
+                for (int i = 0; i < counts[p]; ++i) if (slots[p * stride + i] == n) {
+                    removeSlot(p, i);
+                    break;
+                }
+
+                int top = 0;
+                stack[top++] = n;
+                while (top > 0) {
+                    int m = stack[--top];
+                    if (leaves[m]) {
+                        if (numOrphans + counts[m] > orphans.length)
+                            orphans = Arrays.copyOf(orphans, Math.max(2 * orphans.length, numOrphans + counts[m]));
+                        System.arraycopy(slots, m * stride, orphans, numOrphans, counts[m]);
+                        numOrphans += counts[m];
+                    }
+                    else {
+                        ensureStack(top + counts[m]);
+                        System.arraycopy(slots, m * stride, stack, top, counts[m]);
+                        top += counts[m];
+                    }
+                    freeNode(m);
+                }
+            }
+            else recomputeBounds(n);
+
+            n = p;
+        }
+
+        recomputeBounds(root);
+
+        // Roots with one child are not allowed
+        while (!leaves[root] && counts[root] == 1) {
+            int child = slots[root * stride];
+            freeNode(root);
+            root = child;
+            parents[root] = NIL;
+        }
+
+        // Everything got cut off, start over from an empty leaf
+        if (!leaves[root] && counts[root] == 0) {
+            leaves[root] = true;
+            recomputeBounds(root);
+        }
+
+        // Add the orphans back
+        for (int i = 0; i < numOrphans; ++i) place(orphans[i]);
+    }
+
+    /**
+     * Removes slot i of node n by moving the last slot into it
+     */
+    private void removeSlot(int n, int i) {
+        slots[n * stride + i] = slots[n * stride + --counts[n]];
+    }
+
+    /**
+     * Recomputes the domain of n from its children or entries
+     */
+    private void recomputeBounds(int n) {
+        int b = n * 2 * numDims;
+        for (int dim = 0; dim < numDims; ++dim) {
+            bounds[b + 2 * dim] = Double.MAX_VALUE;
+            bounds[b + 2 * dim + 1] = -Double.MAX_VALUE;
+        }
+
+        for (int i = 0; i < counts[n]; ++i) {
+            int item = slots[n * stride + i];
+
+            for (int dim = 0; dim < numDims; ++dim) {
+                double lo, hi;
+                if (leaves[n]) lo = hi = coords[item * numDims + dim];
+                else {
+                    lo = bounds[item * 2 * numDims + 2 * dim];
+                    hi = bounds[item * 2 * numDims + 2 * dim + 1];
+                }
+                if (lo < bounds[b + 2 * dim]) bounds[b + 2 * dim] = lo;
+                if (hi > bounds[b + 2 * dim + 1]) bounds[b + 2 * dim + 1] = hi;
+            }
+        }
+    }
+
+    private boolean overlaps(double[] query, int n) {
+        int b = n * 2 * numDims;
+        for (int dim = 0; dim < numDims; ++dim) {
+            if (bounds[b + 2 * dim] > query[2 * dim + 1] || query[2 * dim] > bounds[b + 2 * dim + 1])
+                return false;
+        }
+        return true;
+    }
+
+    private boolean pointInBox(double[] box, int offset, int e) {
+        int c = e * numDims;
+        for (int dim = 0; dim < numDims; ++dim) {
+            if (coords[c + dim] < box[offset + 2 * dim] || box[offset + 2 * dim + 1] < coords[c + dim])
+                return false;
+        }
+        return true;
+    }
+
+    private boolean boxContains(int n, T entry) {
+        int b = n * 2 * numDims;
+        for (int dim = 0; dim < numDims; ++dim) {
+            double coord = entry.getParamValue(dim);
+            if (coord < bounds[b + 2 * dim] || bounds[b + 2 * dim + 1] < coord)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Area of node n if it were expanded to hold entry e
+     */
+    private double expandedArea(int n, int e) {
+        double area = 1.0;
+        int b = n * 2 * numDims, c = e * numDims;
+        for (int dim = 0; dim < numDims; ++dim)
+            area *= Math.max(bounds[b + 2 * dim + 1], coords[c + dim]) - Math.min(bounds[b + 2 * dim], coords[c + dim]);
+        return area;
+    }
+
+    private double area(double[] boxes, int offset) {
+        double area = 1.0;
+        for (int dim = 0; dim < numDims; ++dim) area *= boxes[offset + 2 * dim + 1] - boxes[offset + 2 * dim];
+        return area;
+    }
+
+    private double unionArea(double[] a, int aOffset, double[] b, int bOffset) {
+        double area = 1.0;
+        for (int dim = 0; dim < numDims; ++dim)
+            area *= Math.max(a[aOffset + 2 * dim + 1], b[bOffset + 2 * dim + 1]) - Math.min(a[aOffset + 2 * dim], b[bOffset + 2 * dim]);
+        return area;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T entry(int e) {
+        return (T) entries[e];
+    }
+
+    /**
+     * Makes sure the traversal stack can hold the given number of nodes
+     */
+    private void ensureStack(int needed) {
+        if (needed > stack.length) stack = Arrays.copyOf(stack, Math.max(2 * stack.length, needed));
+    }
+
+    private int allocNode(boolean leaf, int parent) {
+        int n;
+        if (numFreeNodes > 0) n = freeNodes[--numFreeNodes];
+        else {
+            n = numNodes++;
+            if (n == counts.length) {
+                int capacity = 2 * counts.length;
+                bounds = Arrays.copyOf(bounds, capacity * 2 * numDims);
+                slots = Arrays.copyOf(slots, capacity * stride);
+                counts = Arrays.copyOf(counts, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                leaves = Arrays.copyOf(leaves, capacity);
+            }
+        }
+
+        leaves[n] = leaf;
+        parents[n] = parent;
+        counts[n] = 0;
+        recomputeBounds(n); // Empty domain
+        return n;
+    }
+
+    private void freeNode(int n) {
+        if (numFreeNodes == freeNodes.length) freeNodes = Arrays.copyOf(freeNodes, 2 * freeNodes.length);
+        freeNodes[numFreeNodes++] = n;
+    }
+
+    private int allocEntry(T entry) {
+        int e;
+        if (numFreeEntries > 0) e = freeEntries[--numFreeEntries];
+        else {
+            e = numEntrySlots++;
+            if (e == entries.length) {
+                entries = Arrays.copyOf(entries, 2 * entries.length);
+                coords = Arrays.copyOf(coords, entries.length * numDims);
+            }
+        }
+
+        entries[e] = entry;
+        for (int dim = 0; dim < numDims; ++dim) coords[e * numDims + dim] = entry.getParamValue(dim);
+        return e;
+    }
+
+    private void freeEntry(int e) {
+        entries[e] = null;
+        if (numFreeEntries == freeEntries.length) freeEntries = Arrays.copyOf(freeEntries, 2 * freeEntries.length);
+        freeEntries[numFreeEntries++] = e;
+    }
+}
@@ -0,0 +1,159 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * Thread safe wrapper around an RTree
+ *
+ * Readers do not lock at all at first, they read optimistically and check afterwards that no writer came by.
+ * Only if one did, they try again and then fall back to a proper read lock.
+ * So readers never wait for each other, and only wait for writers that actually got in the way.
+ * Writers take the write lock for the mutation only.
+ *
+ * @param <T> the Entry to store in the tree.
+ */
+public class ConcurrentRTree<T extends RTreeEntry> {
+    // Optimistic attempts before a reader takes the read lock
+    private static final int OPTIMISTIC_TRIES = 2;
+
+    private final RTree<T> tree;
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * @param tree - The tree to guard, it must not be used directly afterwards
+     */
+    public ConcurrentRTree(RTree<T> tree) {
+        this.tree = tree;
+    }
+
+    public List<T> search(Range<Double>[] ranges) {
+        return read(() -> tree.search(ranges));
+    }
+
+    public long count(Range<Double>[] ranges) {
+        return read(() -> tree.count(ranges));
+    }
+
+    public Aggregate aggregate(Range<Double>[] ranges) {
+        return read(() -> tree.aggregate(ranges));
+    }
+
+    public List<T> nearest(double[] point, int k) {
+        return read(() -> tree.nearest(point, k));
+    }
+
+    public void insert(T entry) {
+        long stamp = lock.writeLock();
+        try {
+            tree.insert(entry);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean delete(T entry) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.delete(entry);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean update(T entry, double[] coords) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.update(entry, coords);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void insertAll(Collection<T> entries) {
+        long stamp = lock.writeLock();
+        try {
+            tree.insertAll(entries);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int deleteAll(Collection<T> entries) {
+        long stamp = lock.writeLock();
+        try {
+            return tree.deleteAll(entries);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void bulkLoad(Collection<T> entries) {
+        long stamp = lock.writeLock();
+        try {
+            tree.bulkLoad(entries);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Holds the read lock for the whole write, a failed optimistic attempt would leave a file behind
+     */
+    public void writeSnapshot(Path file, EntryCodec<T> codec) throws IOException {
+        long stamp = lock.readLock();
+        try {
+            tree.writeSnapshot(file, codec);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void loadSnapshot(Path file, EntryCodec<T> codec) throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            tree.loadSnapshot(file, codec);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            tree.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Runs the query optimistically, retrying and then locking if a writer got in the way
+     * The query must only build its own result, since a failed attempt is thrown away
+     */
+    private <R> R read(Supplier<R> query) {
+        for (int i = 0; i < OPTIMISTIC_TRIES; ++i) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0) break; // A writer is in, no point trying
+
+            try {
+                R result = query.get();
+                if (lock.validate(stamp)) return result;
+            } catch (RuntimeException e) {
+                // Saw the tree halfway through a change, unless nothing changed and it is a real error
+                if (lock.validate(stamp)) throw e;
+            }
+        }
+
+        long stamp = lock.readLock();
+        try {
+            return query.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
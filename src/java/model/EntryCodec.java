@@ -0,0 +1,27 @@
+package model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns entries into bytes and back, for trees kept outside the heap
+ *
+ * Every entry takes the same number of bytes, so a page always holds a fixed number of them.
+ *
+ * @param <T> the Entry to store in the tree.
+ */
+public interface EntryCodec<T extends RTreeEntry> {
+    /**
+     * Bytes taken by every entry, write and read must use exactly this many
+     */
+    int size();
+
+    /**
+     * Writes the entry at the position of buf, moving it forward by size()
+     */
+    void write(T entry, ByteBuffer buf);
+
+    /**
+     * Reads an entry at the position of buf, moving it forward by size()
+     */
+    T read(ByteBuffer buf);
+}
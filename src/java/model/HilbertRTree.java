@@ -0,0 +1,544 @@
+package model;
+
+import java.util.*;
+
+/**
+ * Based on Hilbert R-tree: An Improved R-tree Using Fractals
+ * (Ibrahim Kamel and Christos Faloutsos, 1994)
+ *
+ * Every entry gets a key from where it lies on a Hilbert curve through the domain,
+ * and every level of the tree is kept sorted by that key.
+ * So a leaf is picked by key alone instead of by area expansion, and an overflowing node
+ * first shares with a sibling and only splits 2 nodes into 3 when both are full.
+ * Nodes end up about 2/3 to fully packed.
+ *
+ * @param <T> the Entry to store in the tree.
+ */
+public class HilbertRTree<T extends RTreeEntry> {
+    private final int maxEntries;
+    private final int minEntries;
+
+    private final int maxChildren;
+    private final int minChildren;
+    private final int numDims;
+
+    // Domain used to place coordinates on the curve, anything outside is clamped onto its edge
+    private final double[] domainMin;
+    private final double[] domainWidth;
+    private final int bits; // Bits per dimension of the key
+
+    private Node root;
+    private int size;
+
+    /**
+     * A node, its items are sorted by Hilbert key
+     */
+    private static final class Node {
+        final boolean leaf;
+        Node parent;
+
+        Object[] items; // Entries if leaf, children otherwise
+        long[] keys;    // The key of each entry, or the largest key (LHV) under each child
+        int count;
+
+        final double[] lo, hi;
+
+        Node(boolean leaf, int capacity, int numDims) {
+            this.leaf = leaf;
+            items = new Object[capacity + 1]; // One more to overflow
+            keys = new long[capacity + 1];
+            lo = new double[numDims];
+            hi = new double[numDims];
+        }
+
+        /**
+         * Largest Hilbert value in the subtree
+         */
+        long lhv() {
+            return count == 0 ? Long.MIN_VALUE : keys[count - 1];
+        }
+
+        int indexOf(Object item) {
+            for (int i = 0; i < count; ++i) if (items[i] == item) return i;
+            throw new IllegalStateException("找不到小孩");
+        }
+
+        void insertAt(int i, Object item, long key) {
+            if (count == items.length) {
+                items = Arrays.copyOf(items, 2 * count);
+                keys = Arrays.copyOf(keys, 2 * count);
+            }
+            System.arraycopy(items, i, items, i + 1, count - i);
+            System.arraycopy(keys, i, keys, i + 1, count - i);
+            items[i] = item;
+            keys[i] = key;
+            ++count;
+        }
+
+        void removeAt(int i) {
+            System.arraycopy(items, i + 1, items, i, count - i - 1);
+            System.arraycopy(keys, i + 1, keys, i, count - i - 1);
+            items[--count] = null;
+        }
+    }
+
+    /**
+     * @param maxEntries - Maximum entries per leaf
+     * @param maxChildren - Maximum children per internal node
+     * @param domain - The expected range of every dimension, used to compute the keys
+     */
+    public HilbertRTree(int maxEntries, int maxChildren, Range<Double>[] domain) {
+        if (maxEntries < 2 || maxChildren < 2) throw new IllegalArgumentException("节点太小");
+        this.maxEntries = maxEntries;
+        this.minEntries = maxEntries / 2;
+        this.maxChildren = maxChildren;
+        this.minChildren = maxChildren / 2;
+        this.numDims = domain.length;
+        this.bits = Math.min(31, 63 / numDims);
+
+        domainMin = new double[numDims];
+        domainWidth = new double[numDims];
+        for (int dim = 0; dim < numDims; ++dim) {
+            domainMin[dim] = domain[dim].getMin();
+            domainWidth[dim] = domain[dim].getMax() - domain[dim].getMin();
+            if (!(domainWidth[dim] > 0)) throw new IllegalArgumentException("范围不对");
+        }
+
+        clear();
+    }
+
+    public int size() {return size;}
+
+    public void clear() {
+        root = new Node(true, maxEntries, numDims);
+        emptyBounds(root);
+        size = 0;
+    }
+
+    /**
+     * Position of the entry along the Hilbert curve through the domain
+     * Uses Skilling's transpose algorithm (Programming the Hilbert curve, 2004)
+     */
+    public long hilbertKey(T entry) {
+        long[] x = new long[numDims];
+        long cells = (1L << bits) - 1;
+
+        // Quantise each coordinate onto the grid
+        for (int dim = 0; dim < numDims; ++dim) {
+            double t = (entry.getParamValue(dim) - domainMin[dim]) / domainWidth[dim];
+            x[dim] = (long) (Math.max(0.0, Math.min(1.0, t)) * cells);
+        }
+
+        // Inverse undo
+        for (long q = 1L << (bits - 1); q > 1; q >>= 1) {
+            long p = q - 1;
+            for (int i = 0; i < numDims; ++i) {
+                if ((x[i] & q) != 0) x[0] ^= p; // Invert
+                else { // Exchange
+                    long t = (x[0] ^ x[i]) & p;
+                    x[0] ^= t;
+                    x[i] ^= t;
+                }
+            }
+        }
+
+        // Gray encode
+        for (int i = 1; i < numDims; ++i) x[i] ^= x[i - 1];
+        long t = 0;
+        for (long q = 1L << (bits - 1); q > 1; q >>= 1) if ((x[numDims - 1] & q) != 0) t ^= q - 1;
+        for (int i = 0; i < numDims; ++i) x[i] ^= t;
+
+        // Interleave the transposed bits into the key, most significant first
+        long key = 0;
+        for (int b = bits - 1; b >= 0; --b)
+            for (int i = 0; i < numDims; ++i) key = (key << 1) | ((x[i] >> b) & 1);
+        return key;
+    }
+
+    /**
+     * Searches the tree for objects in query range
+     * @return list of entries of objects in query range
+     */
+    public List<T> search(Range<Double>[] ranges) {
+        if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+
+        List<T> results = new ArrayList<>();
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+
+        while (!stack.isEmpty()) {
+            Node n = stack.pop();
+
+            for (int i = 0; i < n.count; ++i) {
+                if (n.leaf) {
+                    T e = (T) n.items[i];
+                    if (RTreeNode.isInRange(ranges, e)) results.add(e);
+                }
+                else {
+                    Node c = (Node) n.items[i];
+                    if (overlaps(c, ranges)) stack.push(c);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Inserting an entry, the leaf is picked by its Hilbert key
+     */
+    public void insert(T entry) {
+        if (entry.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+        long key = hilbertKey(entry);
+
+        // First child whose largest key is at least the key, otherwise the last child
+        Node n = root;
+        while (!n.leaf) {
+            int i = 0;
+            while (i < n.count - 1 && n.keys[i] < key) ++i;
+            n = (Node) n.items[i];
+        }
+
+        // Keep the leaf sorted, equal keys go after the ones already there
+        int i = n.count;
+        while (i > 0 && n.keys[i - 1] > key) --i;
+        n.insertAt(i, entry, key);
+        ++size;
+
+        if (n.count > maxEntries) handleOverflow(n);
+        else refreshPath(n);
+    }
+
+    /**
+     * Deletes the entry from the tree
+     * @param entry the entry to delete
+     * @return true if the entry was deleted
+     */
+    public boolean delete(T entry) {
+        if (entry.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+        long key = hilbertKey(entry);
+
+        // Equal keys can spill over a few leaves, so walk right while they can still be there
+        for (Node leaf = firstLeafFor(key); leaf != null && (leaf.count == 0 || leaf.keys[0] <= key); leaf = nextLeaf(leaf)) {
+            for (int i = 0; i < leaf.count; ++i) {
+                if (leaf.keys[i] != key || !entry.equals(leaf.items[i])) continue;
+
+                // Entry found, kill it now
+                leaf.removeAt(i);
+                --size;
+                handleUnderflow(leaf);
+                return true;
+            }
+        }
+
+        throw new IllegalStateException("找不到树叶");
+    }
+
+    /**
+     * Packs the entries into leaves in Hilbert order, then each level above the same way
+     * Entries already in the tree are packed together with the new ones
+     * @param entries - The entries to load
+     */
+    public void bulkLoad(Collection<T> entries) {
+        for (T e : entries) if (e.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+
+        List<Object> all = new ArrayList<>(entries);
+        collectEntries(root, all);
+
+        // Sort by key, computing each key once
+        long[] keys = new long[all.size()];
+        Integer[] order = new Integer[all.size()];
+        for (int i = 0; i < order.length; ++i) {
+            keys[i] = hilbertKey((T) all.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> keys[i]));
+
+        Object[] items = new Object[order.length];
+        long[] sortedKeys = new long[order.length];
+        for (int i = 0; i < order.length; ++i) {
+            items[i] = all.get(order[i]);
+            sortedKeys[i] = keys[order[i]];
+        }
+
+        size = items.length;
+        boolean leaf = true;
+        do {
+            List<Node> level = pack(items, sortedKeys, leaf);
+
+            items = level.toArray();
+            sortedKeys = new long[items.length];
+            for (int i = 0; i < items.length; ++i) sortedKeys[i] = level.get(i).lhv();
+            leaf = false;
+        } while (items.length > 1);
+
+        root = (Node) items[0];
+        root.parent = null;
+    }
+
+    /**
+     * Cuts the sorted items into full nodes, the last two share evenly if the last one is too small
+     */
+    private List<Node> pack(Object[] items, long[] keys, boolean leaf) {
+        int capacity = leaf ? maxEntries : maxChildren, min = leaf ? minEntries : minChildren;
+        int numNodes = Math.max(1, (items.length + capacity - 1) / capacity);
+
+        List<Node> level = new ArrayList<>(numNodes);
+        for (int from = 0; from < items.length || level.isEmpty(); ) {
+            int take = Math.min(capacity, items.length - from);
+
+            // The one before last gives some to the last one
+            int rest = items.length - from - take;
+            if (rest > 0 && rest < min) take = (items.length - from + 1) / 2;
+
+            Node n = new Node(leaf, capacity, numDims);
+            for (int i = from; i < from + take; ++i) {
+                n.insertAt(n.count, items[i], keys[i]);
+                if (!leaf) ((Node) items[i]).parent = n;
+            }
+            refreshBounds(n);
+            level.add(n);
+            from += take;
+        }
+
+        return level;
+    }
+
+    /**
+     * Shares an overflowing node with a sibling, or splits 2 full nodes into 3
+     */
+    private void handleOverflow(Node n) {
+        while (n.count > capacity(n)) {
+            Node p = n.parent;
+
+            if (p == null) {
+                // The root splits in 2 and the tree grows
+                Node sibling = new Node(n.leaf, capacity(n), numDims);
+                root = new Node(false, maxChildren, numDims);
+                root.insertAt(0, n, 0);
+                root.insertAt(1, sibling, 0);
+                n.parent = sibling.parent = root;
+                redistribute(List.of(n, sibling));
+                refreshBounds(root);
+                return;
+            }
+
+            List<Node> group = cooperatingSiblings(n);
+            if (group.size() > 1 && group.stream().anyMatch(s -> s.count < capacity(s))) {
+                // A sibling has space, just share
+                redistribute(group);
+                n = p;
+                break;
+            }
+
+            // Everyone is full, add another node after them and share between all of them
+            Node last = group.get(group.size() - 1);
+            Node fresh = new Node(n.leaf, capacity(n), numDims);
+            fresh.parent = p;
+            p.insertAt(p.indexOf(last) + 1, fresh, last.lhv());
+
+            List<Node> bigger = new ArrayList<>(group);
+            bigger.add(fresh);
+            redistribute(bigger);
+
+            n = p;
+        }
+
+        refreshPath(n);
+    }
+
+    /**
+     * Shares an underflowing node with a sibling, or merges it into the sibling
+     */
+    private void handleUnderflow(Node n) {
+        while (n != root && n.count < (n.leaf ? minEntries : minChildren)) {
+            Node p = n.parent;
+
+            List<Node> group = cooperatingSiblings(n);
+            if (group.size() < 2) {
+                // Only child, nothing to share with, but empty nodes still have to go
+                if (n.count > 0) break;
+                p.removeAt(p.indexOf(n));
+                n = p;
+                continue;
+            }
+
+            int total = 0;
+            for (Node s : group) total += s.count;
+
+            if (total >= 2 * (n.leaf ? minEntries : minChildren)) {
+                // Enough to go around
+                redistribute(group);
+                n = p;
+                break;
+            }
+
+            // Merge both into the sibling, and drop n
+            Node sibling = group.get(0) == n ? group.get(1) : group.get(0);
+            List<Object> items = new ArrayList<>();
+            List<Long> keys = new ArrayList<>();
+            for (Node s : group) for (int i = 0; i < s.count; ++i) {
+                items.add(s.items[i]);
+                keys.add(s.keys[i]);
+            }
+
+            sibling.count = 0;
+            for (int i = 0; i < items.size(); ++i) {
+                sibling.insertAt(i, items.get(i), keys.get(i));
+                if (!sibling.leaf) ((Node) items.get(i)).parent = sibling;
+            }
+            refreshBounds(sibling);
+            p.keys[p.indexOf(sibling)] = sibling.lhv();
+            p.removeAt(p.indexOf(n));
+
+            n = p;
+        }
+
+        refreshPath(n);
+
+        // Roots with one child are not allowed
+        while (!root.leaf && root.count == 1) {
+            root = (Node) root.items[0];
+            root.parent = null;
+        }
+        if (!root.leaf && root.count == 0) clear();
+    }
+
+    /**
+     * The node with its right sibling, or its left one if it is the last child, in order
+     */
+    private List<Node> cooperatingSiblings(Node n) {
+        Node p = n.parent;
+        int i = p.indexOf(n);
+
+        if (i + 1 < p.count) return List.of(n, (Node) p.items[i + 1]);
+        if (i > 0) return List.of((Node) p.items[i - 1], n);
+        return List.of(n);
+    }
+
+    /**
+     * Spreads the items of adjacent siblings evenly over them, keeping the Hilbert order
+     */
+    private void redistribute(List<Node> group) {
+        List<Object> items = new ArrayList<>();
+        List<Long> keys = new ArrayList<>();
+        for (Node s : group) {
+            for (int i = 0; i < s.count; ++i) {
+                items.add(s.items[i]);
+                keys.add(s.keys[i]);
+            }
+            Arrays.fill(s.items, 0, s.count, null);
+            s.count = 0;
+        }
+
+        int from = 0;
+        for (int g = 0; g < group.size(); ++g) {
+            Node s = group.get(g);
+            int to = (int) ((long) items.size() * (g + 1) / group.size());
+
+            for (int i = from; i < to; ++i) {
+                s.insertAt(s.count, items.get(i), keys.get(i));
+                if (!s.leaf) ((Node) items.get(i)).parent = s;
+            }
+            from = to;
+
+            refreshBounds(s);
+            if (s.parent != null) s.parent.keys[s.parent.indexOf(s)] = s.lhv();
+        }
+    }
+
+    /**
+     * Recomputes the domain and largest key of n and every ancestor
+     */
+    private void refreshPath(Node n) {
+        for (; n != null; n = n.parent) {
+            refreshBounds(n);
+            if (n.parent != null) n.parent.keys[n.parent.indexOf(n)] = n.lhv();
+        }
+    }
+
+    private void refreshBounds(Node n) {
+        emptyBounds(n);
+        for (int i = 0; i < n.count; ++i) {
+            for (int dim = 0; dim < numDims; ++dim) {
+                double lo, hi;
+                if (n.leaf) lo = hi = ((T) n.items[i]).getParamValue(dim);
+                else {
+                    lo = ((Node) n.items[i]).lo[dim];
+                    hi = ((Node) n.items[i]).hi[dim];
+                }
+                if (lo < n.lo[dim]) n.lo[dim] = lo;
+                if (hi > n.hi[dim]) n.hi[dim] = hi;
+            }
+        }
+    }
+
+    private void emptyBounds(Node n) {
+        Arrays.fill(n.lo, Double.MAX_VALUE);
+        Arrays.fill(n.hi, -Double.MAX_VALUE);
+    }
+
+    /**
+     * The leftmost leaf that may hold the key
+     */
+    private Node firstLeafFor(long key) {
+        Node n = root;
+        while (!n.leaf) {
+            int i = 0;
+            while (i < n.count - 1 && n.keys[i] < key) ++i;
+            n = (Node) n.items[i];
+        }
+        return n;
+    }
+
+    /**
+     * The leaf right after the given one in Hilbert order, null if it is the last
+     */
+    private Node nextLeaf(Node n) {
+        // Go up until there is something to the right
+        while (n.parent != null && n.parent.indexOf(n) == n.parent.count - 1) n = n.parent;
+        if (n.parent == null) return null;
+
+        // Then down the leftmost path
+        n = (Node) n.parent.items[n.parent.indexOf(n) + 1];
+        while (!n.leaf) n = (Node) n.items[0];
+        return n;
+    }
+
+    private void collectEntries(Node n, List<Object> entries) {
+        for (int i = 0; i < n.count; ++i) {
+            if (n.leaf) entries.add(n.items[i]);
+            else collectEntries((Node) n.items[i], entries);
+        }
+    }
+
+    private boolean overlaps(Node n, Range<Double>[] ranges) {
+        for (int dim = 0; dim < numDims; ++dim) {
+            if (n.lo[dim] > ranges[dim].getMax() || ranges[dim].getMin() > n.hi[dim])
+                return false;
+        }
+        return true;
+    }
+
+    private int capacity(Node n) {
+        return n.leaf ? maxEntries : maxChildren;
+    }
+
+    /**
+     * Average fill of the leaves, between 0 and 1
+     */
+    public double leafUtilisation() {
+        long leaves = 0, entries = 0;
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node n = stack.pop();
+            if (n.leaf) {
+                ++leaves;
+                entries += n.count;
+            }
+            else for (int i = 0; i < n.count; ++i) stack.push((Node) n.items[i]);
+        }
+        return (double) entries / (leaves * maxEntries);
+    }
+}
@@ -0,0 +1,56 @@
+package model;
+
+/**
+ * Guttman's linear split, O(items * dims)
+ *
+ * The seeds are the pair with the greatest normalised separation along any dimension,
+ * everything else goes wherever it needs the least area expansion, in no particular order.
+ * Cheapest to build, most overlap.
+ */
+public class LinearSplit implements SplitStrategy {
+    @Override
+    public int[] split(double[][] lo, double[][] hi, int min) {
+        int count = lo.length, numDims = lo[0].length;
+
+        // Pick the seeds
+        int seed0 = 0, seed1 = 1;
+        double bestSep = -1.0;
+        for (int dim = 0; dim < numDims; ++dim) {
+            double dimLb = Double.MAX_VALUE, dimUb = -Double.MAX_VALUE;
+
+            // Keeps track of the items with the largest lower bound and the smallest upper bound
+            int maxLb = 0, minUb = 0;
+            for (int i = 0; i < count; ++i) {
+                dimLb = Math.min(dimLb, lo[i][dim]);
+                dimUb = Math.max(dimUb, hi[i][dim]);
+                if (lo[i][dim] > lo[maxLb][dim]) maxLb = i;
+                if (hi[i][dim] < hi[minUb][dim]) minUb = i;
+            }
+
+            // Both are the same item when everything sits on one point
+            if (maxLb == minUb) minUb = maxLb == 0 ? 1 : 0;
+
+            // Normalised separation of the pair
+            double width = dimUb - dimLb;
+            double sep = width > 0 ? (lo[maxLb][dim] - hi[minUb][dim]) / width : 0.0;
+            if (sep <= bestSep) continue;
+
+            bestSep = sep;
+            seed0 = maxLb;
+            seed1 = minUb;
+        }
+
+        SplitGroups groups = new SplitGroups(lo, hi, seed0, seed1);
+
+        // Everything else in order
+        for (int i = 0; i < count; ++i) {
+            if (groups.side[i] != -1) continue;
+
+            // Dump everything into a side that needs all of it to meet min
+            if (groups.fillUp(min)) break;
+            groups.add(i, groups.preferred(i));
+        }
+
+        return groups.side;
+    }
+}
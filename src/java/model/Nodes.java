@@ -0,0 +1,113 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Node helpers shared by the trees that keep the domains of their children as plain double arrays,
+ * RLinkTree, PersistentRTree and PagedRTree
+ */
+final class Nodes {
+    private Nodes() {}
+
+    /**
+     * The box around the first count entries
+     */
+    static void bounds(Object[] entries, int count, double[] lo, double[] hi) {
+        Arrays.fill(lo, Double.MAX_VALUE);
+        Arrays.fill(hi, -Double.MAX_VALUE);
+        for (int i = 0; i < count; ++i) {
+            for (int dim = 0; dim < lo.length; ++dim) {
+                double coord = ((RTreeEntry) entries[i]).getParamValue(dim);
+                if (coord < lo[dim]) lo[dim] = coord;
+                if (coord > hi[dim]) hi[dim] = coord;
+            }
+        }
+    }
+
+    /**
+     * The box around the first count boxes
+     */
+    static void bounds(double[][] boxLo, double[][] boxHi, int count, double[] lo, double[] hi) {
+        Arrays.fill(lo, Double.MAX_VALUE);
+        Arrays.fill(hi, -Double.MAX_VALUE);
+        for (int i = 0; i < count; ++i) {
+            for (int dim = 0; dim < lo.length; ++dim) {
+                if (boxLo[i][dim] < lo[dim]) lo[dim] = boxLo[i][dim];
+                if (boxHi[i][dim] > hi[dim]) hi[dim] = boxHi[i][dim];
+            }
+        }
+    }
+
+    /**
+     * Of the first count boxes, the one growing the least to hold the entry, ties go to the smaller one
+     */
+    static int chooseChild(double[][] lo, double[][] hi, int count, RTreeEntry entry) {
+        int best = -1;
+        double minInc = Double.MAX_VALUE, bestArea = Double.MAX_VALUE;
+
+        for (int i = 0; i < count; ++i) {
+            double area = 1.0, expanded = 1.0;
+            for (int dim = 0; dim < lo[i].length; ++dim) {
+                double coord = entry.getParamValue(dim);
+                area *= hi[i][dim] - lo[i][dim];
+                expanded *= Math.max(hi[i][dim], coord) - Math.min(lo[i][dim], coord);
+            }
+
+            double inc = expanded - area;
+            if (inc > minInc || (inc == minInc && area >= bestArea)) continue;
+
+            best = i;
+            minInc = inc;
+            bestArea = area;
+        }
+
+        if (best < 0) throw new IllegalStateException("没有适合的孩子");
+        return best;
+    }
+
+    static boolean overlaps(double[] lo, double[] hi, Range<Double>[] ranges) {
+        for (int dim = 0; dim < lo.length; ++dim)
+            if (lo[dim] > ranges[dim].getMax() || ranges[dim].getMin() > hi[dim]) return false;
+        return true;
+    }
+
+    static boolean contains(double[] lo, double[] hi, RTreeEntry entry) {
+        for (int dim = 0; dim < lo.length; ++dim) {
+            double coord = entry.getParamValue(dim);
+            if (coord < lo[dim] || hi[dim] < coord) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The first count entries as boxes for a SplitStrategy
+     * Entries are points, so both corners are the same and this is passed as lo and hi
+     */
+    static double[][] points(Object[] entries, int count, int numDims) {
+        double[][] points = new double[count][numDims];
+        for (int i = 0; i < count; ++i)
+            for (int dim = 0; dim < numDims; ++dim) points[i][dim] = ((RTreeEntry) entries[i]).getParamValue(dim);
+        return points;
+    }
+
+    /**
+     * Writes the entry with the codec, checking it took exactly codec.size() bytes
+     * A codec that does not would silently corrupt the entries around it
+     */
+    static <T extends RTreeEntry> void write(EntryCodec<T> codec, T entry, ByteBuffer buf) {
+        int at = buf.position();
+        codec.write(entry, buf);
+        if (buf.position() != at + codec.size()) throw new IllegalArgumentException("编码的大小不对");
+    }
+
+    /**
+     * Reads an entry with the codec, checking it took exactly codec.size() bytes
+     */
+    static <T extends RTreeEntry> T read(EntryCodec<T> codec, ByteBuffer buf) {
+        int at = buf.position();
+        T entry = codec.read(buf);
+        if (buf.position() != at + codec.size()) throw new IllegalArgumentException("编码的大小不对");
+        return entry;
+    }
+}
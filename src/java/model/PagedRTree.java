@@ -0,0 +1,539 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * R-tree kept in a file instead of the heap, for peers with more offers than fit in memory
+ *
+ * Every node is one fixed size page of the file, and entries are written with an EntryCodec so they all
+ * take the same space. The fanouts follow from the page size.
+ * Only the pages in the buffer pool are in memory. When it is full, the least recently used page is
+ * written back if it changed, and dropped. Page 0 is the header, so the file can be opened again later.
+ *
+ * Entries come back decoded from their page, so they are equal to the ones inserted but not the same objects.
+ * Not thread safe, and the file is only consistent after flush or close.
+ *
+ * @param <T> the Entry to store in the tree.
+ */
+public class PagedRTree<T extends RTreeEntry> implements Closeable {
+    private static final int MAGIC = 0x50525452; // "PRTR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 44;
+    private static final int NONE = -1;
+
+    // Every page starts with its kind and item count
+    private static final int PAGE_HEADER = 5;
+    private static final byte LEAF = 0, INTERNAL = 1, FREE = 2;
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int poolPages;
+    private final EntryCodec<T> codec;
+
+    private final int maxEntries;
+    private final int minEntries;
+
+    private final int maxChildren;
+    private final int minChildren;
+    private final int numDims;
+
+    private final SplitStrategy splitStrategy;
+
+    private int root, height; // Height 1 is a single leaf
+    private long size;
+    private int pageCount;
+    private int freeHead; // Freed pages are chained through their first bytes
+
+    // The buffer pool, least recently used first
+    private final LinkedHashMap<Integer, Node> frames = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits, misses;
+    private boolean writing; // Writes hold on to the nodes on their path, so nothing is evicted until they are done
+
+    /**
+     * A page read into memory, it stays the only copy of the page while it is in the pool
+     */
+    private static final class Node {
+        final int page;
+        final boolean leaf;
+        boolean dirty;
+
+        Object[] items; // Entries, if leaf
+        int[] children; // Child pages otherwise
+        double[][] lo, hi; // Domain of each child, unused in leaves
+        int count;
+
+        Node(int page, boolean leaf, int capacity, int numDims) {
+            this.page = page;
+            this.leaf = leaf;
+            // One more to overflow
+            if (leaf) items = new Object[capacity + 1];
+            else {
+                children = new int[capacity + 1];
+                lo = new double[capacity + 1][numDims];
+                hi = new double[capacity + 1][numDims];
+            }
+        }
+    }
+
+    /**
+     * Opens the tree in file, or starts a new one if the file is empty
+     * @param pageSize - Bytes per node
+     * @param poolPages - How many pages the buffer pool keeps in memory
+     * @param splitStrategy - How overflowing nodes are split, see LinearSplit, QuadraticSplit and RStarSplit
+     */
+    public PagedRTree(Path file, int pageSize, int poolPages, int numDims, EntryCodec<T> codec, SplitStrategy splitStrategy) throws IOException {
+        if (poolPages < 1) throw new IllegalArgumentException("poolPages太小");
+        this.pageSize = pageSize;
+        this.poolPages = poolPages;
+        this.numDims = numDims;
+        this.codec = codec;
+        this.splitStrategy = splitStrategy;
+
+        maxEntries = (pageSize - PAGE_HEADER) / codec.size();
+        maxChildren = (pageSize - PAGE_HEADER) / (Integer.BYTES + 2 * numDims * Double.BYTES);
+        if (pageSize < HEADER_SIZE || maxEntries < 2 || maxChildren < 2) throw new IllegalArgumentException("页太小");
+        minEntries = Math.max(1, maxEntries * 2 / 5);
+        minChildren = Math.max(1, maxChildren * 2 / 5);
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                pageCount = 1;
+                freeHead = NONE;
+                root = allocate(true).page;
+                height = 1;
+                writeHeader();
+            }
+            else readHeader();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Splits with LinearSplit
+     */
+    public PagedRTree(Path file, int pageSize, int poolPages, int numDims, EntryCodec<T> codec) throws IOException {
+        this(file, pageSize, poolPages, numDims, codec, new LinearSplit());
+    }
+
+    public long size() {return size;}
+
+    /**
+     * Pool lookups that found the page in memory, since the tree was opened or resetStats
+     */
+    public long hits() {return hits;}
+
+    /**
+     * Pool lookups that had to read the page from the file
+     */
+    public long misses() {return misses;}
+
+    /**
+     * Share of pool lookups that did not touch the file, 0 if there were none
+     */
+    public double hitRatio() {
+        return hits + misses == 0 ? 0.0 : (double) hits / (hits + misses);
+    }
+
+    public void resetStats() {
+        hits = misses = 0;
+    }
+
+    /**
+     * Searches for objects in query range
+     * @return list of entries of objects in query range
+     */
+    public List<T> search(Range<Double>[] ranges) {
+        if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+
+        List<T> results = new ArrayList<>();
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Node n = fetch(pending.pop());
+            for (int i = 0; i < n.count; ++i) {
+                if (n.leaf) {
+                    if (RTreeNode.isInRange(ranges, (T) n.items[i])) results.add((T) n.items[i]);
+                }
+                else if (Nodes.overlaps(n.lo[i], n.hi[i], ranges)) pending.push(n.children[i]);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Inserting an entry
+     */
+    public void insert(T entry) {
+        if (entry.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+
+        writing = true;
+        try {
+            insertEntry(entry);
+            ++size;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Deletes the entry, underflowing nodes are dropped and their entries inserted again
+     * @return true if the entry was deleted
+     * @throws IllegalStateException if the entry is not in the tree, like RTree.delete
+     */
+    public boolean delete(T entry) {
+        if (entry.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+
+        writing = true;
+        try {
+            List<T> orphans = new ArrayList<>();
+            if (!deleteFrom(fetch(root), entry, orphans)) throw new IllegalStateException("找不到树叶");
+            --size;
+
+            // roots with one child are not allowed
+            Node r = fetch(root);
+            while (!r.leaf && r.count == 1) {
+                Node child = fetch(r.children[0]);
+                free(r.page);
+                r = child;
+                root = r.page;
+                --height;
+            }
+
+            for (T orphan : orphans) insertEntry(orphan);
+            return true;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Writes every changed page and the header back, and makes sure they reached the disk
+     */
+    public void flush() throws IOException {
+        for (Node n : frames.values()) {
+            if (!n.dirty) continue;
+            writePage(n);
+            n.dirty = false;
+        }
+        writeHeader();
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void insertEntry(T entry) {
+        Node r = fetch(root);
+        Node sibling = insertInto(r, entry);
+        if (sibling == null) return;
+
+        // The root split, grow a new one
+        Node newRoot = allocate(false);
+        addChild(newRoot, r);
+        addChild(newRoot, sibling);
+        root = newRoot.page;
+        ++height;
+    }
+
+    /**
+     * @return the new sibling of n if it overflowed and split, null otherwise
+     */
+    private Node insertInto(Node n, T entry) {
+        n.dirty = true;
+        if (n.leaf) {
+            n.items[n.count++] = entry;
+            return n.count > maxEntries ? split(n) : null;
+        }
+
+        int best = Nodes.chooseChild(n.lo, n.hi, n.count, entry);
+        for (int dim = 0; dim < numDims; ++dim) {
+            double coord = entry.getParamValue(dim);
+            if (coord < n.lo[best][dim]) n.lo[best][dim] = coord;
+            if (coord > n.hi[best][dim]) n.hi[best][dim] = coord;
+        }
+
+        Node child = fetch(n.children[best]);
+        Node sibling = insertInto(child, entry);
+        if (sibling == null) return null;
+
+        bounds(child, n.lo[best], n.hi[best]); // Half of it left
+        addChild(n, sibling);
+        return n.count > maxChildren ? split(n) : null;
+    }
+
+    /**
+     * Moves some of the items of n to a new page with the split strategy
+     * @return the new sibling
+     */
+    private Node split(Node n) {
+        double[][] lo, hi;
+        if (n.leaf) lo = hi = Nodes.points(n.items, n.count, numDims);
+        else {
+            lo = Arrays.copyOf(n.lo, n.count);
+            hi = Arrays.copyOf(n.hi, n.count);
+        }
+
+        int[] groups = splitStrategy.split(lo, hi, n.leaf ? minEntries : minChildren);
+
+        Node sibling = allocate(n.leaf);
+        int kept = 0;
+        for (int i = 0; i < n.count; ++i) {
+            Node to = groups[i] == 0 ? n : sibling;
+            int j = groups[i] == 0 ? kept++ : to.count;
+            if (n.leaf) to.items[j] = n.items[i];
+            else {
+                to.children[j] = n.children[i];
+                to.lo[j] = lo[i];
+                to.hi[j] = hi[i];
+            }
+            if (to == sibling) ++sibling.count;
+        }
+
+        // Rows moved away are shared now, give the slots left behind their own again
+        for (int i = kept; i < n.count; ++i) {
+            if (n.leaf) n.items[i] = null;
+            else {
+                n.lo[i] = new double[numDims];
+                n.hi[i] = new double[numDims];
+            }
+        }
+        n.count = kept;
+        return sibling;
+    }
+
+    /**
+     * @return true if the entry was found below n and deleted
+     */
+    private boolean deleteFrom(Node n, T entry, List<T> orphans) {
+        if (n.leaf) {
+            for (int i = 0; i < n.count; ++i) {
+                if (!n.items[i].equals(entry)) continue;
+
+                // Entry found, kill it now
+                n.items[i] = n.items[--n.count];
+                n.items[n.count] = null;
+                n.dirty = true;
+                return true;
+            }
+            return false;
+        }
+
+        for (int i = 0; i < n.count; ++i) {
+            if (!Nodes.contains(n.lo[i], n.hi[i], entry)) continue;
+
+            Node child = fetch(n.children[i]);
+            if (!deleteFrom(child, entry, orphans)) continue;
+
+            if (child.count < (child.leaf ? minEntries : minChildren)) {
+                // Cut off the whole subtree, its entries get inserted back
+                collectEntries(child, orphans);
+                removeChild(n, i);
+            }
+            else bounds(child, n.lo[i], n.hi[i]);
+            n.dirty = true;
+            return true;
+        }
+
+        // Nothing :(
+        return false;
+    }
+
+    /**
+     * Adds every entry below n to entries and frees the pages they were on
+     */
+    private void collectEntries(Node n, List<T> entries) {
+        for (int i = 0; i < n.count; ++i) {
+            if (n.leaf) entries.add((T) n.items[i]);
+            else collectEntries(fetch(n.children[i]), entries);
+        }
+        free(n.page);
+    }
+
+    private void addChild(Node n, Node child) {
+        bounds(child, n.lo[n.count], n.hi[n.count]);
+        n.children[n.count++] = child.page;
+        n.dirty = true;
+    }
+
+    /**
+     * Moves the last child into slot i, the order of children does not matter
+     */
+    private void removeChild(Node n, int i) {
+        int last = --n.count;
+        double[] lo = n.lo[i], hi = n.hi[i];
+        n.children[i] = n.children[last];
+        n.lo[i] = n.lo[last];
+        n.hi[i] = n.hi[last];
+        n.lo[last] = lo;
+        n.hi[last] = hi;
+        n.dirty = true;
+    }
+
+    private static void bounds(Node n, double[] lo, double[] hi) {
+        if (n.leaf) Nodes.bounds(n.items, n.count, lo, hi);
+        else Nodes.bounds(n.lo, n.hi, n.count, lo, hi);
+    }
+
+    // ---------------- Buffer pool ----------------
+
+    /**
+     * The node on page, from the pool if it is there and from the file otherwise
+     */
+    private Node fetch(int page) {
+        Node n = frames.get(page);
+        if (n != null) {
+            ++hits;
+            return n;
+        }
+
+        ++misses;
+        n = readPage(page);
+        frames.put(page, n);
+        if (!writing) evict();
+        return n;
+    }
+
+    private void endWrite() {
+        writing = false;
+        evict();
+    }
+
+    /**
+     * Drops least recently used pages until the pool fits, writing back the ones that changed
+     */
+    private void evict() {
+        Iterator<Node> it = frames.values().iterator();
+        while (frames.size() > poolPages) {
+            Node n = it.next();
+            if (n.dirty) writePage(n);
+            it.remove();
+        }
+    }
+
+    /**
+     * A new empty node in the pool, on a freed page if there is one
+     */
+    private Node allocate(boolean leaf) {
+        int page;
+        if (freeHead != NONE) {
+            page = freeHead;
+            ByteBuffer buf = ByteBuffer.allocate(PAGE_HEADER);
+            read(buf, (long) page * pageSize);
+            if (buf.get(0) != FREE) throw new IllegalStateException("空页有问题");
+            freeHead = buf.getInt(1);
+        }
+        else page = pageCount++;
+
+        Node n = new Node(page, leaf, leaf ? maxEntries : maxChildren, numDims);
+        n.dirty = true;
+        frames.put(page, n);
+        return n;
+    }
+
+    /**
+     * Drops the page from the pool and puts it on the free chain
+     */
+    private void free(int page) {
+        frames.remove(page);
+
+        ByteBuffer buf = ByteBuffer.allocate(PAGE_HEADER);
+        buf.put(FREE).putInt(freeHead).flip();
+        write(buf, (long) page * pageSize);
+        freeHead = page;
+    }
+
+    private Node readPage(int page) {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        read(buf, (long) page * pageSize);
+
+        byte kind = buf.get(0);
+        if (kind != LEAF && kind != INTERNAL) throw new IllegalStateException("页有问题");
+        Node n = new Node(page, kind == LEAF, kind == LEAF ? maxEntries : maxChildren, numDims);
+        n.count = buf.getInt(1);
+
+        buf.position(PAGE_HEADER);
+        for (int i = 0; i < n.count; ++i) {
+            if (n.leaf) {
+                n.items[i] = Nodes.read(codec, buf);
+                continue;
+            }
+            n.children[i] = buf.getInt();
+            for (int dim = 0; dim < numDims; ++dim) n.lo[i][dim] = buf.getDouble();
+            for (int dim = 0; dim < numDims; ++dim) n.hi[i][dim] = buf.getDouble();
+        }
+        return n;
+    }
+
+    private void writePage(Node n) {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.put(n.leaf ? LEAF : INTERNAL).putInt(n.count);
+        for (int i = 0; i < n.count; ++i) {
+            if (n.leaf) {
+                Nodes.write(codec, (T) n.items[i], buf);
+                continue;
+            }
+            buf.putInt(n.children[i]);
+            for (int dim = 0; dim < numDims; ++dim) buf.putDouble(n.lo[i][dim]);
+            for (int dim = 0; dim < numDims; ++dim) buf.putDouble(n.hi[i][dim]);
+        }
+        buf.clear();
+        write(buf, (long) n.page * pageSize);
+    }
+
+    private void writeHeader() {
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(pageSize).putInt(numDims).putInt(codec.size())
+                .putInt(root).putInt(height).putLong(size).putInt(pageCount).putInt(freeHead);
+        buf.clear();
+        write(buf, 0);
+    }
+
+    private void readHeader() {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        read(buf, 0);
+        buf.flip();
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) throw new IllegalArgumentException("文件不对");
+        if (buf.getInt() != pageSize || buf.getInt() != numDims || buf.getInt() != codec.size())
+            throw new IllegalArgumentException("文件的大小不对");
+
+        root = buf.getInt();
+        height = buf.getInt();
+        size = buf.getLong();
+        pageCount = buf.getInt();
+        freeHead = buf.getInt();
+    }
+
+    private void read(ByteBuffer buf, long position) {
+        try {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, position + buf.position()) < 0) throw new IllegalStateException("文件太短");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void write(ByteBuffer buf, long position) {
+        try {
+            while (buf.hasRemaining()) channel.write(buf, position + buf.position());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
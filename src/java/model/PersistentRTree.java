@@ -0,0 +1,324 @@
+package model;
+
+import java.util.*;
+
+/**
+ * Persistent R-tree, every change makes a new root by copying the path it touched
+ * and sharing every other node with the versions before it.
+ *
+ * A Snapshot is an immutable view of one version, so readers never lock and never see a change halfway,
+ * no matter how long they hold it. Taking one is free, which is what subtree transfers need.
+ * Writers are serialised with each other.
+ *
+ * RTreeNode keeps parent pointers, which cannot be shared between versions, so this has its own nodes.
+ *
+ * @param <T> the Entry to store in the tree.
+ */
+public class PersistentRTree<T extends RTreeEntry> {
+    private final int maxEntries;
+    private final int minEntries;
+
+    private final int maxChildren;
+    private final int minChildren;
+    private final int numDims;
+
+    private final SplitStrategy splitStrategy;
+
+    private volatile Snapshot<T> current;
+
+    /**
+     * An immutable node, its domain and entry count are fixed when it is made
+     */
+    private static final class Node {
+        final boolean leaf;
+        final Object[] items; // Entries if leaf, children otherwise
+        final double[] lo, hi;
+        final double[][] childLo, childHi; // Domain of each child, null in leaves
+        final long numEntries;
+
+        Node(boolean leaf, Object[] items, int numDims) {
+            this.leaf = leaf;
+            this.items = items;
+            lo = new double[numDims];
+            hi = new double[numDims];
+
+            if (leaf) {
+                childLo = childHi = null;
+                Nodes.bounds(items, items.length, lo, hi);
+                numEntries = items.length;
+                return;
+            }
+
+            childLo = new double[items.length][];
+            childHi = new double[items.length][];
+            long count = 0;
+            for (int i = 0; i < items.length; ++i) {
+                childLo[i] = ((Node) items[i]).lo;
+                childHi[i] = ((Node) items[i]).hi;
+                count += ((Node) items[i]).numEntries;
+            }
+            Nodes.bounds(childLo, childHi, items.length, lo, hi);
+            numEntries = count;
+        }
+
+        boolean overlaps(Range<Double>[] ranges) {
+            return Nodes.overlaps(lo, hi, ranges);
+        }
+
+        boolean contains(RTreeEntry e) {
+            return Nodes.contains(lo, hi, e);
+        }
+    }
+
+    /**
+     * One version of the tree, safe to read from any thread forever
+     */
+    public static final class Snapshot<T extends RTreeEntry> {
+        private final Node root;
+        private final int numDims;
+
+        private Snapshot(Node root, int numDims) {
+            this.root = root;
+            this.numDims = numDims;
+        }
+
+        public long size() {return root.numEntries;}
+
+        /**
+         * Searches this version for objects in query range
+         * @return list of entries of objects in query range
+         */
+        public List<T> search(Range<Double>[] ranges) {
+            if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+
+            List<T> results = new ArrayList<>();
+            search(root, ranges, results);
+            return results;
+        }
+
+        private void search(Node n, Range<Double>[] ranges, List<T> results) {
+            for (Object item : n.items) {
+                if (n.leaf) {
+                    if (RTreeNode.isInRange(ranges, (T) item)) results.add((T) item);
+                }
+                else if (((Node) item).overlaps(ranges)) search((Node) item, ranges, results);
+            }
+        }
+
+        /**
+         * Counts the objects in query range of this version
+         */
+        public long count(Range<Double>[] ranges) {
+            if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+            return count(root, ranges);
+        }
+
+        private long count(Node n, Range<Double>[] ranges) {
+            // Everything below is in range
+            boolean contained = true;
+            for (int dim = 0; dim < numDims && contained; ++dim)
+                contained = ranges[dim].getMin() <= n.lo[dim] && n.hi[dim] <= ranges[dim].getMax();
+            if (contained) return n.numEntries;
+
+            long count = 0;
+            for (Object item : n.items) {
+                if (n.leaf) {
+                    if (RTreeNode.isInRange(ranges, (T) item)) ++count;
+                }
+                else if (((Node) item).overlaps(ranges)) count += count((Node) item, ranges);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @param maxChildren - The internal fanout
+     * @param splitStrategy - How overflowing nodes are split, see LinearSplit, QuadraticSplit and RStarSplit
+     */
+    public PersistentRTree(int maxEntries, int minEntries, int maxChildren, int numDims, SplitStrategy splitStrategy) {
+        if (minEntries * 2 > maxEntries || minEntries < 1) throw new IllegalArgumentException("minEntries不对");
+        if (maxChildren < 2) throw new IllegalArgumentException("maxChildren太小");
+        this.maxEntries = maxEntries;
+        this.minEntries = minEntries;
+        this.maxChildren = maxChildren;
+        this.minChildren = Math.max(1, maxChildren * 2 / 5);
+        this.numDims = numDims;
+        this.splitStrategy = splitStrategy;
+
+        clear();
+    }
+
+    /**
+     * Splits with LinearSplit
+     */
+    public PersistentRTree(int maxEntries, int minEntries, int maxChildren, int numDims) {
+        this(maxEntries, minEntries, maxChildren, numDims, new LinearSplit());
+    }
+
+    /**
+     * The current version, it never changes afterwards
+     */
+    public Snapshot<T> snapshot() {
+        return current;
+    }
+
+    public long size() {return current.size();}
+
+    /**
+     * Searches the current version, same as snapshot().search(ranges)
+     */
+    public List<T> search(Range<Double>[] ranges) {
+        return current.search(ranges);
+    }
+
+    public synchronized void clear() {
+        current = new Snapshot<>(new Node(true, new Object[0], numDims), numDims);
+    }
+
+    /**
+     * Inserting an entry, publishes a new version
+     */
+    public synchronized void insert(T entry) {
+        if (entry.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+        current = new Snapshot<>(insert(current.root, entry), numDims);
+    }
+
+    /**
+     * Deletes the entry, publishes a new version if it was found
+     * Unlike RTree.delete a missing entry is not an error, nothing is published and this returns false
+     * @return true if the entry was deleted
+     */
+    public synchronized boolean delete(T entry) {
+        if (entry.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+
+        List<T> orphans = new ArrayList<>();
+        Node root = delete(current.root, entry, orphans, true);
+        if (root == current.root) return false; // Not found, nothing changed
+
+        // roots with one child are not allowed
+        while (!root.leaf && root.items.length == 1) root = (Node) root.items[0];
+        if (!root.leaf && root.items.length == 0) root = new Node(true, new Object[0], numDims);
+
+        // add the orphans back
+        for (T orphan : orphans) root = insert(root, orphan);
+
+        current = new Snapshot<>(root, numDims);
+        return true;
+    }
+
+    /**
+     * Inserts into a copy of the path, growing a new root if the old one splits
+     */
+    private Node insert(Node root, T entry) {
+        Node[] replaced = insertInto(root, entry);
+        return replaced.length == 1 ? replaced[0] : new Node(false, replaced, numDims);
+    }
+
+    /**
+     * @return the copy of n with the entry, or the two halves if it overflowed
+     */
+    private Node[] insertInto(Node n, T entry) {
+        if (n.leaf) {
+            Object[] items = Arrays.copyOf(n.items, n.items.length + 1);
+            items[n.items.length] = entry;
+            return items.length > maxEntries ? split(items, true) : new Node[]{new Node(true, items, numDims)};
+        }
+
+        int best = Nodes.chooseChild(n.childLo, n.childHi, n.items.length, entry);
+        Node[] replaced = insertInto((Node) n.items[best], entry);
+
+        // Same children, with the one we went into swapped for its copy (or its halves)
+        Object[] items = new Object[n.items.length - 1 + replaced.length];
+        System.arraycopy(n.items, 0, items, 0, best);
+        System.arraycopy(replaced, 0, items, best, replaced.length);
+        System.arraycopy(n.items, best + 1, items, best + replaced.length, n.items.length - best - 1);
+
+        return items.length > maxChildren ? split(items, false) : new Node[]{new Node(false, items, numDims)};
+    }
+
+    /**
+     * Shares the items between two new nodes with the split strategy
+     */
+    private Node[] split(Object[] items, boolean leaf) {
+        double[][] lo, hi;
+        if (leaf) lo = hi = Nodes.points(items, items.length, numDims);
+        else {
+            lo = new double[items.length][];
+            hi = new double[items.length][];
+            for (int i = 0; i < items.length; ++i) {
+                lo[i] = ((Node) items[i]).lo;
+                hi[i] = ((Node) items[i]).hi;
+            }
+        }
+
+        int[] groups = splitStrategy.split(lo, hi, leaf ? minEntries : minChildren);
+
+        int ones = 0;
+        for (int g : groups) ones += g;
+        Object[][] sides = {new Object[items.length - ones], new Object[ones]};
+        int[] sizes = new int[2];
+        for (int i = 0; i < items.length; ++i) sides[groups[i]][sizes[groups[i]]++] = items[i];
+
+        return new Node[]{new Node(leaf, sides[0], numDims), new Node(leaf, sides[1], numDims)};
+    }
+
+    /**
+     * Deletes from a copy of the path
+     * @return n itself if the entry is not below it, null if the copy underflowed and was dropped, otherwise the copy
+     */
+    private Node delete(Node n, T entry, List<T> orphans, boolean isRoot) {
+        if (n.leaf) {
+            for (int i = 0; i < n.items.length; ++i) {
+                if (!n.items[i].equals(entry)) continue;
+
+                // Entry found, kill it now
+                Object[] items = new Object[n.items.length - 1];
+                System.arraycopy(n.items, 0, items, 0, i);
+                System.arraycopy(n.items, i + 1, items, i, items.length - i);
+
+                if (!isRoot && items.length < minEntries) {
+                    for (Object item : items) orphans.add((T) item);
+                    return null;
+                }
+                return new Node(true, items, numDims);
+            }
+            return n;
+        }
+
+        for (int i = 0; i < n.items.length; ++i) {
+            Node child = (Node) n.items[i];
+            if (!child.contains(entry)) continue;
+
+            Node replaced = delete(child, entry, orphans, false);
+            if (replaced == child) continue; // Not in there
+
+            Object[] items;
+            if (replaced != null) {
+                items = n.items.clone();
+                items[i] = replaced;
+            }
+            else {
+                items = new Object[n.items.length - 1];
+                System.arraycopy(n.items, 0, items, 0, i);
+                System.arraycopy(n.items, i + 1, items, i, items.length - i);
+            }
+
+            if (!isRoot && items.length < minChildren) {
+                // Cut off the whole subtree, its entries get inserted back
+                for (Object item : items) collectEntries((Node) item, orphans);
+                return null;
+            }
+            return new Node(false, items, numDims);
+        }
+
+        // Nothing :(
+        return n;
+    }
+
+    private void collectEntries(Node n, List<T> entries) {
+        for (Object item : n.items) {
+            if (n.leaf) entries.add((T) item);
+            else collectEntries((Node) item, entries);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package model;
+
+/**
+ * Guttman's quadratic split, O(items ^ 2 * dims)
+ *
+ * The seeds are the pair wasting the most area when put together,
+ * then the item with the strongest preference for one side is always placed next.
+ * Slower to build than LinearSplit, but the nodes overlap less.
+ */
+public class QuadraticSplit implements SplitStrategy {
+    @Override
+    public int[] split(double[][] lo, double[][] hi, int min) {
+        int count = lo.length, numDims = lo[0].length;
+
+        // Pick the seeds, the pair wasting the most area
+        int seed0 = 0, seed1 = 1;
+        double worst = -Double.MAX_VALUE;
+        for (int i = 0; i < count; ++i) for (int j = i + 1; j < count; ++j) {
+            double union = 1.0, area0 = 1.0, area1 = 1.0;
+            for (int dim = 0; dim < numDims; ++dim) {
+                union *= Math.max(hi[i][dim], hi[j][dim]) - Math.min(lo[i][dim], lo[j][dim]);
+                area0 *= hi[i][dim] - lo[i][dim];
+                area1 *= hi[j][dim] - lo[j][dim];
+            }
+
+            if (union - area0 - area1 <= worst) continue;
+            worst = union - area0 - area1;
+            seed0 = i;
+            seed1 = j;
+        }
+
+        SplitGroups groups = new SplitGroups(lo, hi, seed0, seed1);
+
+        while (groups.remaining > 0) {
+            // Dump everything into a side that needs all of it to meet min
+            if (groups.fillUp(min)) break;
+
+            // Pick the item that cares the most about which side it goes to
+            int next = -1;
+            double bestDiff = -1.0;
+            for (int i = 0; i < count; ++i) if (groups.side[i] == -1) {
+                double diff = Math.abs(groups.expansion(0, i) - groups.expansion(1, i));
+                if (diff <= bestDiff) continue;
+                bestDiff = diff;
+                next = i;
+            }
+
+            groups.add(next, groups.preferred(next));
+        }
+
+        return groups.side;
+    }
+}
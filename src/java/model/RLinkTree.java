@@ -0,0 +1,393 @@
+package model;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Based on High-Concurrency Locking in R-Trees
+ * (Marcel Kornacker and Douglas Banks, 1995)
+ *
+ * Concurrent R-tree where every node has its own latch, and nobody ever waits for the latch of a node
+ * below or to the left of one they hold, so there are no deadlocks.
+ * Readers hold one latch at a time, and writers only hold more than one while splitting upwards or walking right.
+ *
+ * A split moves half of a node to a new right sibling before the parent knows about it.
+ * To not miss it, every node has a right link and a node sequence number (NSN), taken from a global counter
+ * whenever the node splits. A traversal remembers the counter when it reads the parent, and a child
+ * with a larger NSN has split since, so the traversal also follows its right link.
+ *
+ * Domains stored in the parents only ever grow, and nodes are never merged, so deleting never restructures anything.
+ *
+ * @param <T> the Entry to store in the tree.
+ */
+public class RLinkTree<T extends RTreeEntry> {
+    private final int maxEntries;
+    private final int minEntries;
+
+    private final int maxChildren;
+    private final int minChildren;
+    private final int numDims;
+
+    private final SplitStrategy splitStrategy;
+
+    // Stands in for the counter while the root is not latched yet, it is checked to still be the root once it is
+    private static final long ROOT = Long.MAX_VALUE;
+
+    private final AtomicLong globalNsn = new AtomicLong();
+    private final AtomicLong size = new AtomicLong();
+
+    // Only replaced while the old root is write latched
+    private volatile Node root;
+    private volatile Node[] levelHeads; // Leftmost node of every level, each level is a chain of right links
+
+    /**
+     * A node, entries and their domains are only touched under its latch
+     */
+    private static final class Node {
+        final boolean leaf;
+        final int level; // 0 being a leaf
+        final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+
+        Object[] items; // Entries if leaf, children otherwise
+        double[][] lo, hi; // Domain of each child, unused in leaves
+        int count;
+
+        Node right;
+        long nsn;
+
+        Node(boolean leaf, int level, int capacity, int numDims) {
+            this.leaf = leaf;
+            this.level = level;
+            items = new Object[capacity + 1]; // One more to overflow
+            if (!leaf) {
+                lo = new double[capacity + 1][numDims];
+                hi = new double[capacity + 1][numDims];
+            }
+        }
+
+        int indexOf(Node child) {
+            for (int i = 0; i < count; ++i) if (items[i] == child) return i;
+            return -1;
+        }
+    }
+
+    /**
+     * @param maxChildren - The internal fanout
+     * @param splitStrategy - How overflowing nodes are split, see LinearSplit, QuadraticSplit and RStarSplit
+     */
+    public RLinkTree(int maxEntries, int minEntries, int maxChildren, int numDims, SplitStrategy splitStrategy) {
+        if (minEntries * 2 > maxEntries || minEntries < 1) throw new IllegalArgumentException("minEntries不对");
+        if (maxChildren < 2) throw new IllegalArgumentException("maxChildren太小");
+        this.maxEntries = maxEntries;
+        this.minEntries = minEntries;
+        this.maxChildren = maxChildren;
+        this.minChildren = Math.max(1, maxChildren * 2 / 5);
+        this.numDims = numDims;
+        this.splitStrategy = splitStrategy;
+
+        root = new Node(true, 0, maxEntries, numDims);
+        levelHeads = new Node[]{root};
+    }
+
+    /**
+     * Splits with LinearSplit
+     */
+    public RLinkTree(int maxEntries, int minEntries, int maxChildren, int numDims) {
+        this(maxEntries, minEntries, maxChildren, numDims, new LinearSplit());
+    }
+
+    public long size() {return size.get();}
+
+    /**
+     * Searches the tree for objects in query range, while other threads insert and delete
+     * @return list of entries of objects in query range
+     */
+    public List<T> search(Range<Double>[] ranges) {
+        if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+
+        List<T> results = new ArrayList<>();
+        ArrayDeque<Node> nodes = new ArrayDeque<>();
+        ArrayDeque<Long> nsns = new ArrayDeque<>(); // Counter when the parent of each node was read
+
+        nsns.push(ROOT);
+        nodes.push(root);
+
+        while (!nodes.isEmpty()) {
+            Node n = nodes.pop();
+            long seen = nsns.pop();
+
+            n.latch.readLock().lock();
+            if (seen == ROOT && n != root) {
+                // Grew before we got in, start over from the new one
+                n.latch.readLock().unlock();
+                nodes.push(root);
+                nsns.push(ROOT);
+                continue;
+            }
+
+            try {
+                // Split since the parent was read, the rest is to the right
+                if (n.nsn > seen && n.right != null) {
+                    nodes.push(n.right);
+                    nsns.push(seen);
+                }
+
+                if (n.leaf) {
+                    for (int i = 0; i < n.count; ++i)
+                        if (RTreeNode.isInRange(ranges, (T) n.items[i])) results.add((T) n.items[i]);
+                }
+                else {
+                    long now = globalNsn.get();
+                    for (int i = 0; i < n.count; ++i) {
+                        if (!Nodes.overlaps(n.lo[i], n.hi[i], ranges)) continue;
+                        nodes.push((Node) n.items[i]);
+                        nsns.push(now);
+                    }
+                }
+            } finally {
+                n.latch.readLock().unlock();
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Inserting an entry, subtrees not on its path stay open to everyone
+     */
+    public void insert(T entry) {
+        if (entry.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+
+        // Latch the real root, it may grow while we wait
+        Node n;
+        while (true) {
+            n = root;
+            n.latch.writeLock().lock();
+            if (n == root) break;
+            n.latch.writeLock().unlock();
+        }
+
+        // Walk down, growing the domain of each child on the way so the entry is covered the moment it lands
+        ArrayList<Node> path = new ArrayList<>();
+        while (!n.leaf) {
+            Node next;
+            try {
+                int i = Nodes.chooseChild(n.lo, n.hi, n.count, entry);
+                for (int dim = 0; dim < numDims; ++dim) {
+                    double coord = entry.getParamValue(dim);
+                    if (coord < n.lo[i][dim]) n.lo[i][dim] = coord;
+                    if (coord > n.hi[i][dim]) n.hi[i][dim] = coord;
+                }
+                next = (Node) n.items[i];
+            } finally {
+                n.latch.writeLock().unlock();
+            }
+
+            path.add(n);
+            n = next;
+            n.latch.writeLock().lock();
+        }
+
+        n.items[n.count++] = entry;
+        size.incrementAndGet();
+
+        if (n.count > maxEntries) split(n, path); // Releases the latch
+        else n.latch.writeLock().unlock();
+    }
+
+    /**
+     * Deletes the entry from the tree, leaves are never merged and domains never shrink
+     * Unlike RTree.delete a missing entry is not an error, another writer may just have deleted it
+     * @param entry the entry to delete
+     * @return true if the entry was deleted, false if it was not there
+     */
+    public boolean delete(T entry) {
+        if (entry.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+
+        ArrayDeque<Node> nodes = new ArrayDeque<>();
+        ArrayDeque<Long> nsns = new ArrayDeque<>();
+
+        nsns.push(ROOT);
+        nodes.push(root);
+
+        while (!nodes.isEmpty()) {
+            Node n = nodes.pop();
+            long seen = nsns.pop();
+
+            // Leaves are latched for writing straight away, they may be changed
+            ReentrantReadWriteLock.ReadLock readLock = n.latch.readLock();
+            ReentrantReadWriteLock.WriteLock writeLock = n.latch.writeLock();
+            if (n.leaf) writeLock.lock();
+            else readLock.lock();
+
+            if (seen == ROOT && n != root) {
+                if (n.leaf) writeLock.unlock();
+                else readLock.unlock();
+                nodes.push(root);
+                nsns.push(ROOT);
+                continue;
+            }
+
+            try {
+                if (n.nsn > seen && n.right != null) {
+                    nodes.push(n.right);
+                    nsns.push(seen);
+                }
+
+                if (n.leaf) {
+                    for (int i = 0; i < n.count; ++i) {
+                        if (!n.items[i].equals(entry)) continue;
+
+                        // Entry found, kill it now
+                        System.arraycopy(n.items, i + 1, n.items, i, n.count - i - 1);
+                        n.items[--n.count] = null;
+                        size.decrementAndGet();
+                        return true;
+                    }
+                }
+                else {
+                    long now = globalNsn.get();
+                    for (int i = 0; i < n.count; ++i) {
+                        if (!Nodes.contains(n.lo[i], n.hi[i], entry)) continue;
+                        nodes.push((Node) n.items[i]);
+                        nsns.push(now);
+                    }
+                }
+            } finally {
+                if (n.leaf) writeLock.unlock();
+                else readLock.unlock();
+            }
+        }
+
+        // Nothing :(
+        return false;
+    }
+
+    /**
+     * Splits the write latched node into itself and a new right sibling, then adds the sibling to the parent
+     * Releases the latch of n, and splits upwards as long as parents overflow
+     * @param path - The nodes walked through to get to n, its parent is probably the last
+     */
+    private void split(Node n, ArrayList<Node> path) {
+        while (true) {
+            Node sibling = new Node(n.leaf, n.level, n.leaf ? maxEntries : maxChildren, numDims);
+            share(n, sibling);
+
+            // The sibling takes over the old number, n gets a new one later so traversals know to go right
+            sibling.right = n.right;
+            sibling.nsn = n.nsn;
+
+            double[] siblingLo = new double[numDims], siblingHi = new double[numDims];
+            bounds(sibling, siblingLo, siblingHi);
+
+            if (n == root) {
+                // Grow the tree, n is still latched so nobody else can
+                Node grown = new Node(false, n.level + 1, maxChildren, numDims);
+                bounds(n, grown.lo[0], grown.hi[0]);
+                grown.items[0] = n;
+                grown.lo[1] = siblingLo;
+                grown.hi[1] = siblingHi;
+                grown.items[1] = sibling;
+                grown.count = 2;
+
+                n.right = sibling;
+                n.nsn = globalNsn.incrementAndGet();
+
+                Node[] heads = Arrays.copyOf(levelHeads, levelHeads.length + 1);
+                heads[grown.level] = grown;
+                levelHeads = heads;
+                root = grown;
+
+                n.latch.writeLock().unlock();
+                return;
+            }
+
+            // The parent on the path, or if the tree grew since, the head of the level above
+            // n stays latched, going up and right only so nobody waits on us in a circle
+            Node parent = path.isEmpty() ? levelHeads[n.level + 1] : path.remove(path.size() - 1);
+            parent.latch.writeLock().lock();
+
+            // The entry of n may have moved right with a split of the parent
+            int index;
+            while ((index = parent.indexOf(n)) < 0) {
+                Node next = parent.right;
+                if (next == null) {
+                    parent.latch.writeLock().unlock();
+                    n.latch.writeLock().unlock();
+                    throw new IllegalStateException("找不到长辈");
+                }
+                next.latch.writeLock().lock();
+                parent.latch.writeLock().unlock();
+                parent = next;
+            }
+
+            // Right after n, the domain of n stays as it was since inserts on their way down may have grown it
+            System.arraycopy(parent.items, index + 1, parent.items, index + 2, parent.count - index - 1);
+            double[][] lo = parent.lo, hi = parent.hi;
+            double[] spareLo = lo[parent.count], spareHi = hi[parent.count]; // Keep the rows, just reorder them
+            System.arraycopy(lo, index + 1, lo, index + 2, parent.count - index - 1);
+            System.arraycopy(hi, index + 1, hi, index + 2, parent.count - index - 1);
+            lo[index + 1] = spareLo;
+            hi[index + 1] = spareHi;
+            System.arraycopy(siblingLo, 0, lo[index + 1], 0, numDims);
+            System.arraycopy(siblingHi, 0, hi[index + 1], 0, numDims);
+            parent.items[index + 1] = sibling;
+            ++parent.count;
+
+            // Numbered with both latched, so whoever reads the parent later sees the sibling there
+            // and whoever read it before sees the new number on n
+            n.right = sibling;
+            n.nsn = globalNsn.incrementAndGet();
+            n.latch.writeLock().unlock();
+
+            if (parent.count <= maxChildren) {
+                parent.latch.writeLock().unlock();
+                return;
+            }
+            n = parent; // It is time to die parent, you are too fat
+        }
+    }
+
+    /**
+     * Moves part of the items of n to the empty sibling with the split strategy
+     */
+    private void share(Node n, Node sibling) {
+        int count = n.count;
+        double[][] lo, hi;
+        if (n.leaf) lo = hi = Nodes.points(n.items, count, numDims);
+        else {
+            lo = Arrays.copyOf(n.lo, count);
+            hi = Arrays.copyOf(n.hi, count);
+        }
+
+        int[] groups = splitStrategy.split(lo, hi, n.leaf ? minEntries : minChildren);
+
+        Object[] items = n.items.clone();
+        n.count = 0;
+        for (int i = 0; i < count; ++i) {
+            Node to = groups[i] == 0 ? n : sibling;
+            to.items[to.count] = items[i];
+            if (!n.leaf) {
+                to.lo[to.count] = lo[i];
+                to.hi[to.count] = hi[i];
+            }
+            ++to.count;
+        }
+        Arrays.fill(n.items, n.count, items.length, null);
+
+        // Rows of n given away, fresh ones for its free slots
+        if (!n.leaf) for (int i = n.count; i < n.lo.length; ++i) {
+            n.lo[i] = new double[numDims];
+            n.hi[i] = new double[numDims];
+        }
+    }
+
+    /**
+     * Domain of everything in the node, which must be latched
+     */
+    private static void bounds(Node n, double[] lo, double[] hi) {
+        if (n.leaf) Nodes.bounds(n.items, n.count, lo, hi);
+        else Nodes.bounds(n.lo, n.hi, n.count, lo, hi);
+    }
+}
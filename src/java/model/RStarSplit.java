@@ -0,0 +1,98 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The R*-Tree split (Beckmann et al., 1990), O(dims * items log items)
+ *
+ * The split axis is the one with the least total margin over all distributions,
+ * then the distribution along it with the least overlap (then least area) wins.
+ * Most expensive to build, least overlap, so the best for query heavy trees.
+ */
+public class RStarSplit implements SplitStrategy {
+    @Override
+    public int[] split(double[][] lo, double[][] hi, int min) {
+        int count = lo.length, numDims = lo[0].length;
+        min = Math.max(1, min);
+
+        // Choose the split axis
+        int bestAxis = 0;
+        double bestMargin = Double.MAX_VALUE;
+        for (int axis = 0; axis < numDims; ++axis) {
+            double margin = 0.0;
+
+            for (int byUpper = 0; byUpper < 2; ++byUpper) {
+                double[][][] boxes = prefixSuffixBoxes(lo, hi, sortedBy(byUpper == 0 ? lo : hi, axis));
+                for (int k = min; k <= count - min; ++k) margin += margin(boxes[0][k - 1]) + margin(boxes[1][k]);
+            }
+
+            if (margin >= bestMargin) continue;
+            bestMargin = margin;
+            bestAxis = axis;
+        }
+
+        // Choose the distribution along the axis
+        Integer[] bestOrder = null;
+        int bestK = min;
+        double bestOverlap = Double.MAX_VALUE, bestArea = Double.MAX_VALUE;
+        for (int byUpper = 0; byUpper < 2; ++byUpper) {
+            Integer[] order = sortedBy(byUpper == 0 ? lo : hi, bestAxis);
+            double[][][] boxes = prefixSuffixBoxes(lo, hi, order);
+
+            for (int k = min; k <= count - min; ++k) {
+                double[] left = boxes[0][k - 1], right = boxes[1][k];
+                double overlap = 1.0, area = 0.0, leftArea = 1.0, rightArea = 1.0;
+                for (int dim = 0; dim < numDims; ++dim) {
+                    overlap *= Math.max(0.0, Math.min(left[2 * dim + 1], right[2 * dim + 1]) - Math.max(left[2 * dim], right[2 * dim]));
+                    leftArea *= left[2 * dim + 1] - left[2 * dim];
+                    rightArea *= right[2 * dim + 1] - right[2 * dim];
+                }
+                area = leftArea + rightArea;
+
+                if (overlap > bestOverlap || (overlap == bestOverlap && area >= bestArea)) continue;
+                bestOverlap = overlap;
+                bestArea = area;
+                bestOrder = order;
+                bestK = k;
+            }
+        }
+
+        int[] groups = new int[count];
+        for (int i = bestK; i < count; ++i) groups[bestOrder[i]] = 1;
+        return groups;
+    }
+
+    private static Integer[] sortedBy(double[][] corners, int axis) {
+        Integer[] order = new Integer[corners.length];
+        for (int i = 0; i < order.length; ++i) order[i] = i;
+        Arrays.sort(order, Comparator.comparingDouble(i -> corners[i][axis]));
+        return order;
+    }
+
+    /**
+     * Bounding boxes of every prefix [0] and suffix [1] of the ordered boxes, as {min, max} per dimension
+     */
+    private static double[][][] prefixSuffixBoxes(double[][] lo, double[][] hi, Integer[] order) {
+        int count = order.length, numDims = lo[0].length;
+        double[][][] boxes = new double[2][count][2 * numDims];
+
+        for (int i = 0; i < count; ++i) {
+            int j = count - 1 - i;
+            for (int dim = 0; dim < numDims; ++dim) {
+                boxes[0][i][2 * dim] = i == 0 ? lo[order[i]][dim] : Math.min(boxes[0][i - 1][2 * dim], lo[order[i]][dim]);
+                boxes[0][i][2 * dim + 1] = i == 0 ? hi[order[i]][dim] : Math.max(boxes[0][i - 1][2 * dim + 1], hi[order[i]][dim]);
+                boxes[1][j][2 * dim] = i == 0 ? lo[order[j]][dim] : Math.min(boxes[1][j + 1][2 * dim], lo[order[j]][dim]);
+                boxes[1][j][2 * dim + 1] = i == 0 ? hi[order[j]][dim] : Math.max(boxes[1][j + 1][2 * dim + 1], hi[order[j]][dim]);
+            }
+        }
+
+        return boxes;
+    }
+
+    private static double margin(double[] box) {
+        double margin = 0.0;
+        for (int dim = 0; dim < box.length / 2; ++dim) margin += box[2 * dim + 1] - box[2 * dim];
+        return margin;
+    }
+}
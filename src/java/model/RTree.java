@@ -1,6 +1,20 @@
 package model;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static model.RTreeNode.*;
 
@@ -10,6 +24,9 @@ import static model.RTreeNode.*;
  *
  * Adapted from: https://searchcode.com/codesearch/raw/79146202/
  *
+ * Searches can run on many threads at once, but nothing can while it is being changed.
+ * Use ConcurrentRTree to share one between readers and writers.
+ *
  * @param <T> the Entry to store in the model.RTree.
  */
 public class RTree<T extends RTreeEntry> {
@@ -18,266 +35,1492 @@ public class RTree<T extends RTreeEntry> {
     private final int maxEntries;
     private final int minEntries;
 
-    private final int maxChildren = 2;
-    private final int minChildren = 1;
+    private final int maxChildren;
+    private final int minChildren;
     private final int numDims;
 
     private RTreeNode<T> root;
 
-    public RTree(int maxEntries, int minEntries, int numDims) {
+    /**
+     * How entries are placed and how overflowing nodes are treated
+     */
+    public enum Mode {
+        /** Least area expansion and Guttman's splits */
+        GUTTMAN,
+        /** Least overlap expansion above the leaves and forced reinsertion */
+        RSTAR
+    }
+
+    // Fraction of an overflowing node that gets reinserted in R* mode
+    private static final double REINSERT_FRACTION = 0.3;
+
+    // Bulk loads at least this big sort in parallel by default
+    private static final int PARALLEL_BULK_LOAD = 1 << 15;
+
+    // Subtrees with fewer entries than this are searched on one thread by default
+    private static final long PARALLEL_SEARCH = 1 << 14;
+
+    // Snapshot format, a header and then every node breadth first as kind, item count, domain and entries
+    private static final int SNAPSHOT_MAGIC = 0x5254534E; // "RTSN"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER = 32;
+    private static final int NODE_HEADER = 5;
+    private static final byte SNAPSHOT_LEAF = 0, SNAPSHOT_INTERNAL = 1;
+    private static final int SNAPSHOT_BUFFER = 1 << 20;
+    private static final long MAP_WINDOW = 1L << 30; // One mapping cannot go past 2GB
+
+    private final Mode mode;
+    private final SplitStrategy splitStrategy;
+
+    // Levels (0 being the leaves) which already had a forced reinsert during the current insertion
+    private final BitSet reinserted = new BitSet();
+
+    // Bumped on every structural change, so open search iterators can fail fast
+    private int modCount;
+
+    // Reused by the visitor searches so they allocate nothing once it has grown
+    // One per thread, so searches from many threads at once do not trample each other
+    private static final ThreadLocal<SearchStack> SEARCH_STACKS = ThreadLocal.withInitial(SearchStack::new);
+    private RTreeNode<T>[] findStack = new RTreeNode[16];
+
+    // The leaf holding each entry in the tree, so deleting the very same entry skips findLeaf
+    private final IdentityHashMap<T, RTreeNode<T>> leafOf = new IdentityHashMap<>();
+
+    private static class SearchStack {
+        RTreeNode<?>[] nodes = new RTreeNode[16];
+        boolean busy; // A visitor searching again gets its own stack
+    }
+
+    /**
+     * @param maxChildren - The internal fanout, 16 to 64 keeps large trees shallow
+     * @param mode - GUTTMAN for cheap insertions, RSTAR for less overlap and faster searches
+     * @param splitStrategy - How overflowing nodes are split, see LinearSplit, QuadraticSplit and RStarSplit
+     */
+    public RTree(int maxEntries, int minEntries, int maxChildren, int numDims, Mode mode, SplitStrategy splitStrategy) {
         if (minEntries * 2 > maxEntries) throw new IllegalArgumentException("minEntries太大");
+        if (maxChildren < 2) throw new IllegalArgumentException("maxChildren太小");
         this.numDims = numDims;
         this.maxEntries = maxEntries;
         this.minEntries = minEntries;
+        this.maxChildren = maxChildren;
+        this.minChildren = Math.max(1, maxChildren * 2 / 5); // 40% fill like in R*-Trees
+        this.mode = mode;
+        this.splitStrategy = splitStrategy;
 
         root = buildRoot(true);
     }
 
     /**
-     * Creates the root, representing the largest search domain
-     * @return the root node
+     * Splits with RStarSplit in R* mode and LinearSplit otherwise
+     */
+    public RTree(int maxEntries, int minEntries, int maxChildren, int numDims, Mode mode) {
+        this(maxEntries, minEntries, maxChildren, numDims, mode, mode == Mode.RSTAR ? new RStarSplit() : new LinearSplit());
+    }
+
+    /**
+     * @param maxChildren - The internal fanout, 16 to 64 keeps large trees shallow
+     */
+    public RTree(int maxEntries, int minEntries, int maxChildren, int numDims) {this(maxEntries, minEntries, maxChildren, numDims, Mode.GUTTMAN);}
+
+    /**
+     * Binary internal nodes, which is what the GhostNode ids are built for
+     */
+    public RTree(int maxEntries, int minEntries, int numDims) {this(maxEntries, minEntries, 2, numDims);}
+
+    /**
+     * Creates the root, representing the largest search domain
+     * @return the root node
+     */
+    private RTreeNode<T> buildRoot(boolean asLeaf) {
+        Range<Double>[] ranges = new Range[numDims];
+
+        // Setting Largest Domain in each dimension
+        // ± sqrt(MAX_VALUE)
+        for ( int i = 0; i < this.numDims; i++ )
+            ranges[i] = new Range<>(
+                Math.sqrt(Double.MAX_VALUE),
+                -2.0f * Math.sqrt(Double.MAX_VALUE)
+            );
+
+        return new RTreeNode<>(new ArrayList<>(), ranges, asLeaf, null, maxChildren);
+    }
+
+    /**
+     * Default Constructor
+     * (Basically a segment tree)
+     */
+    public RTree() {this(1, 0, 1);}
+
+    /**
+     * Obtains the root
+     * @return root of the tree
+     */
+
+    public RTreeNode<T> getRoot() {
+        return root;
+    }
+
+    /**
+     * Searches the model.RTree for objects in query range
+     * @return list of entries of objects in query range
+     */
+    public List<T> search(Range<Double>[] ranges) {
+        List<T> results = new ArrayList<>();
+        search(ranges, results::add);
+        return results;
+    }
+
+    /**
+     * Hands every entry in query range to the visitor, without building any list
+     * @param visitor - Called once per entry in range
+     */
+    public void search(Range<Double>[] ranges, Consumer<? super T> visitor) {
+        walk(ranges, visitor, null);
+    }
+
+    /**
+     * Hands entries in query range to the visitor until it returns false
+     * @param visitor - Called once per entry in range, returns whether to keep going
+     * @return false if the visitor stopped the search early
+     */
+    public boolean searchUntil(Range<Double>[] ranges, Predicate<? super T> visitor) {
+        return walk(ranges, null, visitor);
+    }
+
+    /**
+     * Depth first walk on the thread's reusable stack, exactly one of consumer and predicate is given
+     */
+    private boolean walk(Range<Double>[] ranges, Consumer<? super T> consumer, Predicate<? super T> predicate) {
+        if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+
+        SearchStack reusable = SEARCH_STACKS.get();
+        boolean nested = reusable.busy;
+        RTreeNode<T>[] stack = nested ? new RTreeNode[16] : (RTreeNode<T>[]) reusable.nodes;
+        int top = 0;
+        stack[top++] = root;
+        reusable.busy = true;
+
+        try {
+            while (top > 0) {
+                RTreeNode<T> n = stack[--top];
+                stack[top] = null;
+
+                if (n.isLeaf()) { // n is leaf, contains entries
+                    List<T> items = n.getItem();
+                    for (int i = 0, size = items.size(); i < size; ++i) {
+                        T e = items.get(i);
+                        if (!RTreeNode.isInRange(ranges, e)) continue;
+
+                        if (consumer != null) consumer.accept(e);
+                        else if (!predicate.test(e)) return false;
+                    }
+                    continue;
+                }
+
+                // If not leaf, travel down the children overlapping the query
+                if (top + n.childSlots() > stack.length) {
+                    stack = Arrays.copyOf(stack, Math.max(2 * stack.length, top + n.childSlots()));
+                    if (!nested) reusable.nodes = stack;
+                }
+                for (int i = n.childSlots() - 1; i >= 0; --i) { // Backwards, so the first child comes out first
+                    if (n.neighbours[i] == null || !RTreeNode.isOverlap(ranges, ((RTreeNode<T>) n.neighbours[i]).getRanges())) continue;
+                    stack[top++] = (RTreeNode<T>) n.neighbours[i];
+                }
+            }
+            return true;
+        }
+        finally {
+            if (!nested) {
+                Arrays.fill(stack, 0, top, null); // Do not keep nodes alive after stopping early
+                reusable.busy = false;
+            }
+        }
+    }
+
+    /**
+     * Runs many range searches in one walk of the tree
+     * Each node is read once for all the queries still overlapping it, instead of once per query
+     * @param queries - The query ranges
+     * @return for each query, in the same order, the list of entries in its range
+     */
+    public List<List<T>> searchBatch(List<Range<Double>[]> queries) {
+        for (Range<Double>[] ranges : queries) if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+
+        Range<Double>[][] batch = queries.toArray(new Range[0][]);
+        List<List<T>> results = new ArrayList<>(batch.length);
+        for (int q = 0; q < batch.length; ++q) results.add(new ArrayList<>());
+        if (batch.length == 0) return results;
+
+        // Queries sorted by where they start in the first dimension
+        // so each child only looks at the ones that can reach it
+        double[] starts = new double[batch.length];
+        double widest = 0.0;
+        Integer[] order = new Integer[batch.length];
+        for (int q = 0; q < batch.length; ++q) {
+            starts[q] = batch[q][0].getMin();
+            widest = Math.max(widest, batch[q][0].getMax() - batch[q][0].getMin());
+            order[q] = q;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(q -> starts[q]));
+
+        // The queries still active at each level, indices into batch, kept in that order
+        int[][] active = new int[height(root) + 1][batch.length];
+        for (int q = 0; q < batch.length; ++q) active[0][q] = order[q];
+
+        searchBatch(root, batch, starts, widest, active, 0, batch.length, results);
+        return results;
+    }
+
+    private void searchBatch(RTreeNode<T> n, Range<Double>[][] batch, double[] starts, double widest,
+                             int[][] active, int depth, int numActive, List<List<T>> results) {
+        int[] queries = active[depth];
+
+        if (n.isLeaf()) { // n is leaf, route each entry to the queries containing it
+            List<T> items = n.getItem();
+            for (int i = 0, size = items.size(); i < size; ++i) {
+                T e = items.get(i);
+                double x = e.getParamValue(0);
+
+                for (int k = firstStart(queries, numActive, starts, x - widest); k < numActive && starts[queries[k]] <= x; ++k)
+                    if (RTreeNode.isInRange(batch[queries[k]], e)) results.get(queries[k]).add(e);
+            }
+            return;
+        }
+
+        int[] next = active[depth + 1];
+        for (int i = 0; i < n.childSlots(); ++i) { // For each child
+            if (n.neighbours[i] == null) continue;
+            RTreeNode<T> child = (RTreeNode<T>) n.neighbours[i];
+            double lo = child.ranges[0].getMin(), hi = child.ranges[0].getMax();
+
+            // Only the queries overlapping the child go down, still in order
+            int numNext = 0;
+            for (int k = firstStart(queries, numActive, starts, lo - widest); k < numActive && starts[queries[k]] <= hi; ++k)
+                if (RTreeNode.isOverlap(batch[queries[k]], child.getRanges())) next[numNext++] = queries[k];
+
+            if (numNext > 0) searchBatch(child, batch, starts, widest, active, depth + 1, numNext, results);
+        }
+    }
+
+    /**
+     * Position of the first query starting at or after the value, by binary search
+     */
+    private static int firstStart(int[] queries, int numActive, double[] starts, double value) {
+        int lo = 0, hi = numActive;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[queries[mid]] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Searches the model.RTree for objects in query range with the common fork-join pool
+     * Subtrees big enough get their own tasks, so broad queries on large trees use every core
+     * @return list of entries of objects in query range
+     */
+    public List<T> searchParallel(Range<Double>[] ranges) {
+        return searchParallel(ranges, PARALLEL_SEARCH);
+    }
+
+    /**
+     * Searches the model.RTree for objects in query range with the common fork-join pool
+     * The tree must not be changed during the search
+     * @param threshold - Subtrees with fewer entries than this are searched by a single task
+     * @return list of entries of objects in query range
+     */
+    public List<T> searchParallel(Range<Double>[] ranges, long threshold) {
+        if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+
+        // Every task fills its own lists, they are only joined once at the end
+        List<List<T>> parts = ForkJoinPool.commonPool().invoke(new SearchTask(root, ranges, threshold));
+
+        int size = 0;
+        for (List<T> part : parts) size += part.size();
+        List<T> results = new ArrayList<>(size);
+        for (List<T> part : parts) results.addAll(part);
+        return results;
+    }
+
+    /**
+     * Searches one subtree, forking a task per overlapping child while the subtree is big
+     */
+    private class SearchTask extends RecursiveTask<List<List<T>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final RTreeNode<T> n;
+        private final Range<Double>[] ranges;
+        private final long threshold;
+
+        SearchTask(RTreeNode<T> n, Range<Double>[] ranges, long threshold) {
+            this.n = n;
+            this.ranges = ranges;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected List<List<T>> compute() {
+            // Small enough to do alone
+            if (n.isLeaf() || n.getNumEntries() < threshold) {
+                List<T> results = new ArrayList<>();
+                collect(n, ranges, results);
+                return List.of(results);
+            }
+
+            List<SearchTask> tasks = new ArrayList<>();
+            for (int i = 0; i < n.childSlots(); ++i) {
+                if (n.neighbours[i] == null || !RTreeNode.isOverlap(ranges, ((RTreeNode<T>) n.neighbours[i]).getRanges())) continue;
+                tasks.add(new SearchTask((RTreeNode<T>) n.neighbours[i], ranges, threshold));
+            }
+
+            List<List<T>> parts = new ArrayList<>();
+            for (SearchTask task : invokeAll(tasks)) parts.addAll(task.join());
+            return parts;
+        }
+    }
+
+    /**
+     * Plain recursive search for one thread, without the shared stack
+     */
+    private void collect(RTreeNode<T> n, Range<Double>[] ranges, List<T> results) {
+        if (n.isLeaf()) { // n is leaf, contains entries
+            List<T> items = n.getItem();
+            for (int i = 0, size = items.size(); i < size; ++i)
+                if (RTreeNode.isInRange(ranges, items.get(i))) results.add(items.get(i));
+        }
+        else // If not leaf, travel down the children
+            for (int i = 0; i < n.childSlots(); ++i) {
+                if (n.neighbours[i] == null || !RTreeNode.isOverlap(ranges, ((RTreeNode<T>) n.neighbours[i]).getRanges())) continue;
+                collect((RTreeNode<T>) n.neighbours[i], ranges, results);
+            }
+    }
+
+    /**
+     * Counts the objects in query range
+     * Subtrees lying completely inside the range are counted from numEntries without going down
+     * @return number of entries of objects in query range
+     */
+    public long count(Range<Double>[] ranges) {
+        if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+        return count(root, ranges);
+    }
+
+    private long count(RTreeNode<T> n, Range<Double>[] ranges) {
+        // Everything below is in range
+        if (RTreeNode.isContained(ranges, n.getRanges())) return n.getNumEntries();
+
+        long count = 0;
+        if (n.isLeaf()) { // n is leaf, contains entries
+            List<T> items = n.getItem();
+            for (int i = 0, size = items.size(); i < size; ++i)
+                if (RTreeNode.isInRange(ranges, items.get(i))) ++count;
+        }
+        else // If not leaf, count the overlapping children
+            for (int i = 0; i < n.childSlots(); ++i) {
+                if (n.neighbours[i] == null || !RTreeNode.isOverlap(ranges, ((RTreeNode<T>) n.neighbours[i]).getRanges())) continue;
+                count += count((RTreeNode<T>) n.neighbours[i], ranges);
+            }
+
+        return count;
+    }
+
+    /**
+     * Count, sum, min and max of the measures of the objects in query range
+     * Subtrees lying completely inside the range are added from their own aggregates without going down
+     * @return aggregate of entries of objects in query range
+     */
+    public Aggregate aggregate(Range<Double>[] ranges) {
+        if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+
+        Aggregate result = new Aggregate();
+        aggregate(root, ranges, result);
+        return result;
+    }
+
+    private void aggregate(RTreeNode<T> n, Range<Double>[] ranges, Aggregate result) {
+        // Everything below is in range
+        if (RTreeNode.isContained(ranges, n.getRanges())) {
+            result.add(n);
+            return;
+        }
+
+        if (n.isLeaf()) { // n is leaf, contains entries
+            List<T> items = n.getItem();
+            for (int i = 0, size = items.size(); i < size; ++i)
+                if (RTreeNode.isInRange(ranges, items.get(i))) result.add(items.get(i));
+        }
+        else // If not leaf, add up the overlapping children
+            for (int i = 0; i < n.childSlots(); ++i) {
+                if (n.neighbours[i] == null || !RTreeNode.isOverlap(ranges, ((RTreeNode<T>) n.neighbours[i]).getRanges())) continue;
+                aggregate((RTreeNode<T>) n.neighbours[i], ranges, result);
+            }
+    }
+
+    /**
+     * Finds the k entries closest to the point, by euclidean distance
+     * @param point - The coordinates to measure from
+     * @param k - How many entries to find
+     * @return up to k entries, closest first
+     */
+    public List<T> nearest(double[] point, int k) {
+        if (k < 0) throw new IllegalArgumentException("k不能是负数");
+
+        List<T> results = new ArrayList<>(Math.min(k, 64));
+        Iterator<T> it = nearestIterator(point);
+        while (results.size() < k && it.hasNext()) results.add(it.next());
+        return results;
+    }
+
+    /**
+     * Distance browsing, gives every entry in the tree closest first
+     * Only the part of the tree needed for the entries asked for is read
+     * The tree must not be changed while iterating
+     * @param point - The coordinates to measure from
+     */
+    public Iterator<T> nearestIterator(double[] point) {
+        if (point.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+        return new NearestIterator(point.clone());
+    }
+
+    /**
+     * Best first walk (Hjaltason and Samet, 1999)
+     * Nodes and entries share one queue ordered by distance, so an entry coming out is the next closest
+     */
+    private class NearestIterator implements Iterator<T> {
+        private final double[] point;
+        private final PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        private final int expectedModCount = modCount;
+
+        NearestIterator(double[] point) {
+            this.point = point;
+            queue.add(new Candidate(root, 0.0));
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException("树在搜索时被改了");
+
+            // Open nodes until the closest thing is an entry
+            while (!queue.isEmpty() && queue.peek().item instanceof RTreeNode) {
+                RTreeNode<T> n = (RTreeNode<T>) queue.poll().item;
+
+                if (n.isLeaf())
+                    for (T e : n.getItem()) queue.add(new Candidate(e, distanceSq(point, e)));
+                else for (int i = 0; i < n.childSlots(); ++i) {
+                    if (n.neighbours[i] == null) continue;
+                    RTreeNode<T> child = (RTreeNode<T>) n.neighbours[i];
+                    queue.add(new Candidate(child, minDistanceSq(point, child)));
+                }
+            }
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return (T) queue.poll().item;
+        }
+    }
+
+    /**
+     * A node or entry waiting in the nearest neighbour queue
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        final Object item;
+        final double distance;
+
+        Candidate(Object item, double distance) {
+            this.item = item;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Candidate o) {
+            return Double.compare(distance, o.distance);
+        }
+    }
+
+    /**
+     * Lazily searches the model.RTree for objects in query range
+     * Nothing is collected, each match is found when it is asked for, so callers can stop early
+     * The tree must not be changed while iterating
+     * @return iterator over entries of objects in query range
+     */
+    public Iterator<T> searchIterator(Range<Double>[] ranges) {
+        if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+        return new SearchIterator(ranges);
+    }
+
+    /**
+     * Same as searchIterator, as a sequential stream
+     * @return stream of entries of objects in query range
+     */
+    public Stream<T> searchStream(Range<Double>[] ranges) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(searchIterator(ranges), Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Depth first walk with its own stack instead of recursion
+     */
+    private class SearchIterator implements Iterator<T> {
+        private final Range<Double>[] ranges;
+        private final ArrayDeque<RTreeNode<T>> stack = new ArrayDeque<>();
+        private final int expectedModCount = modCount;
+
+        private Iterator<T> leafEntries = Collections.emptyIterator(); // Entries of the leaf being read
+        private T next;
+
+        SearchIterator(Range<Double>[] ranges) {
+            this.ranges = ranges;
+            stack.push(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException("树在搜索时被改了");
+            while (next == null) {
+                // Finish the current leaf first
+                while (leafEntries.hasNext()) {
+                    T e = leafEntries.next();
+                    if (RTreeNode.isInRange(ranges, e)) {
+                        next = e;
+                        return true;
+                    }
+                }
+
+                if (stack.isEmpty()) return false;
+                RTreeNode<T> n = stack.pop();
+
+                if (n.isLeaf()) leafEntries = n.getItem().iterator();
+                else for (int i = n.childSlots() - 1; i >= 0; --i) { // Backwards, so the first child comes out first
+                    if (n.neighbours[i] == null || !RTreeNode.isOverlap(ranges, ((RTreeNode<T>) n.neighbours[i]).getRanges())) continue;
+                    stack.push((RTreeNode<T>) n.neighbours[i]);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            T e = next;
+            next = null;
+            return e;
+        }
+    }
+
+    /**
+     * Deletes the entry associated with the given rectangle from the model.RTree
+     * @param entry the entry to delete
+     * @return true if the entry was deleted from the model.RTree.
+     */
+    public boolean delete(T entry) {
+        if (entry.getNumParams() != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+        ++modCount;
+
+        // Equal entries that are not the one inserted still have to be searched for
+        RTreeNode<T> leaf = leafOf.get(entry);
+        if (leaf == null) leaf = findLeaf(entry);
+
+        // Some checks
+        if (leaf == null) throw new IllegalStateException("找不到树叶");
+        if (!leaf.isLeaf()) throw new IllegalStateException("找到的不是树叶");
+
+        for (T e : leaf.getItem()) {
+            // Reject if not entry
+            if ( !e.equals(entry) ) continue;
+
+            // Entry found, kill it now
+            leaf.getItem().remove(e);
+            leafOf.remove(e);
+            condenseTree(leaf); // Try to reduce tree size
+            return true;
+        }
+
+        // Deletion failed
+        return false;
+    }
+
+    /**
+     * Deletes many entries, condensing and tightening the changed part of the tree once at the end
+     * Entries not in the tree are skipped
+     * @param entries - The entries to delete
+     * @return the number of entries deleted
+     */
+    public int deleteAll(Collection<T> entries) {
+        for (T e : entries) if (e.getNumParams() != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+        ++modCount;
+
+        // Domains only get too big while waiting, so findLeaf still works
+        Set<RTreeNode<T>> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+        int deleted = 0;
+        for (T entry : entries) {
+            RTreeNode<T> leaf = leafOf.get(entry);
+            if (leaf == null) leaf = findLeaf(entry);
+            if (leaf == null) continue;
+
+            int i = 0;
+            while (!leaf.getItem().get(i).equals(entry)) ++i;
+            leafOf.remove(leaf.getItem().remove(i));
+            dirty.add(leaf);
+            ++deleted;
+        }
+
+        // add the orphans back
+        List<T> orphans = new ArrayList<>();
+        List<RTreeNode<T>> subtrees = new ArrayList<>();
+        condenseDirty(dirty, orphans, subtrees);
+        reinsertOrphans(orphans, subtrees);
+        return deleted;
+    }
+
+    /**
+     * Moves an entry to new coordinates, bottom-up instead of deleting and inserting it
+     * It stays in its leaf if the leaf, or its parent, still covers the new point.
+     * Otherwise it goes in again from the lowest ancestor that does, so only that subtree is touched
+     * @param entry - The entry to move, or one equal to it
+     * @param coords - The new coordinates
+     * @return false if the entry is not in the tree
+     * @throws IllegalStateException if setParamValue did not actually move the entry
+     */
+    public boolean update(T entry, double[] coords) {
+        if (entry.getNumParams() != numDims || coords.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+
+        RTreeNode<T> leaf = leafOf.get(entry);
+        if (leaf == null) leaf = findLeaf(entry);
+        if (leaf == null) return false;
+        ++modCount;
+
+        // The one in the tree, which may only be equal to the one given
+        List<T> items = leaf.getItem();
+        int index = 0;
+        while (!items.get(index).equals(entry)) ++index;
+        T moved = items.get(index);
+
+        double[] old = new double[numDims];
+        for (int dim = 0; dim < numDims; ++dim) {
+            old[dim] = moved.getParamValue(dim);
+            moved.setParamValue(dim, coords[dim]);
+        }
+
+        // The default setter writes into getParamValues, which does nothing if that is a copy
+        // Put back whatever did move, so the entry stays inside the domains of the tree
+        for (int dim = 0; dim < numDims; ++dim) {
+            if (Double.compare(moved.getParamValue(dim), coords[dim]) == 0) continue;
+            for (int d = 0; d < numDims; ++d) moved.setParamValue(d, old[d]);
+            throw new IllegalStateException("坐标改不了，要覆盖setParamValue");
+        }
+
+        // Lowest ancestor still covering it
+        RTreeNode<T> cover = leaf;
+        while (cover != null && !isInRange(cover.getRanges(), moved)) cover = cover.getParent();
+
+        // Still close enough, only the domains that actually change get tightened
+        RTreeNode<T> parent = leaf.getParent();
+        if (parent == null || cover == leaf || cover == parent) {
+            for (RTreeNode<T> n = leaf; n != null && n.tighten(); ) n = n.getParent();
+            return true;
+        }
+
+        items.remove(index);
+
+        // The leaf is too small to give it up, condense like a delete does
+        if (items.size() < minEntries) {
+            leafOf.remove(moved);
+            condenseTree(leaf);
+            reinserted.clear();
+            insertEntry(moved);
+            return true;
+        }
+
+        // Entries below cover changed, so up to there everything gets tightened
+        if (cover == null) cover = root;
+        for (RTreeNode<T> n = leaf; n != cover; n = n.getParent()) n.tighten();
+
+        reinserted.clear();
+        RTreeNode<T> target = chooseLeaf(moved, cover);
+        addEntry(target, moved);
+
+        if (target.getItem().size() > maxEntries) {
+            overflowTreatment(target);
+            return true;
+        }
+
+        RTreeNode<T> n = target;
+        for (; n != cover; n = n.getParent()) n.tighten();
+        for (; n != null && n.tighten(); ) n = n.getParent();
+        return true;
+    }
+
+    /**
+     * Called to propagate the deletion of a node
+     * @param node - The GhostNode to delete
+     */
+    public boolean delete(GhostNode<T> node) {
+        if (node.getRanges().length != numDims) throw new IllegalArgumentException("输入的范围大小不对");
+        ++modCount;
+
+        if (node.getParent() == null || !isInTree(node)) return false;
+        RTreeNode<T> parent = node.getParent();
+
+        // Child found, delete it and condense tree
+        parent.removeChild(node);
+        List<T> gone = new ArrayList<>();
+        collectEntries(node, gone);
+        for (T e : gone) leafOf.remove(e);
+        condenseTree(parent);
+        return true;
+    }
+
+    /**
+     * Straight to it by its id, or if it is too deep for one, up to the root
+     */
+    private boolean isInTree(RTreeNode<T> node) {
+        if (node.getPathId() != RTreeNode.NO_PATH) return nodeOf(node.getPathId()) == node;
+
+        while (node.getParent() != null) node = node.getParent();
+        return node == root;
+    }
+
+    /**
+     * The node with the given path id, for the distributed layer to find what a GhostNode refers to
+     * Path ids are the way down from the root, so this walks it instead of keeping a map up to date
+     * @param pathId - From RTreeNode.getPathId
+     * @return the node, or null if there is none there
+     */
+    public RTreeNode<T> nodeOf(long pathId) {
+        if (pathId == RTreeNode.NO_PATH || RTreeNode.levelOf(pathId) > root.getHeight()) return null;
+
+        int bits = RTreeNode.slotBits(root.childSlots());
+        RTreeNode<T> n = root;
+
+        for (int lvl = root.getHeight() - 1, to = RTreeNode.levelOf(pathId); lvl >= to; --lvl) {
+            int slot = RTreeNode.slotOf(pathId, lvl, bits);
+            if (slot >= n.childSlots() || n.neighbours[slot] == null) return null;
+            n = (RTreeNode<T>) n.neighbours[slot];
+        }
+        return n;
+    }
+
+
+    /**
+     * Searches for the leaf containing the entry
+     * Depth first on the reusable stack, the entry dimensions are checked by the caller
+     * @param entry - The entry to find
+     */
+    private RTreeNode<T> findLeaf(T entry) {
+        RTreeNode<T>[] stack = findStack;
+        int top = 0;
+        stack[top++] = root;
+
+        try {
+            while (top > 0) {
+                RTreeNode<T> n = stack[--top];
+
+                if (n.isLeaf()) {
+                    List<T> items = n.getItem();
+                    for (int i = 0, size = items.size(); i < size; ++i)
+                        if (items.get(i).equals(entry)) return n; // RTreeNode found
+                    continue;
+                }
+
+                if (top + n.childSlots() > stack.length)
+                    findStack = stack = Arrays.copyOf(stack, Math.max(2 * stack.length, top + n.childSlots()));
+
+                for (int i = n.childSlots() - 1; i >= 0; --i) {
+                    // ignore null children, and children that do not include entry range
+                    if (n.neighbours[i] == null || !RTreeNode.isInRange(((RTreeNode<T>) n.neighbours[i]).getRanges(), entry)) continue;
+                    stack[top++] = (RTreeNode<T>) n.neighbours[i];
+                }
+            }
+
+            // Nothing :(
+            return null;
+        }
+        finally {
+            Arrays.fill(stack, 0, top, null);
+        }
+    }
+
+    /**
+     * Tree Compression with node as subtree root
+     * @param n the subtree root
+     */
+
+    private void condenseTree(RTreeNode<T> n) {
+        List<T> orphans = new ArrayList<>(); // Not a set, equal entries are still different entries
+        List<RTreeNode<T>> subtrees = new ArrayList<>();
+
+        while ( n != root ) {
+            RTreeNode<T> parent = n.getParent();
+
+            if ( n.isLeaf() && (n.getItem().size() < minEntries)) {
+                orphans.addAll(n.getItem());
+                parent.removeChild(n);
+            }
+            else if (!n.isLeaf() && (n.getNumChildren() < minChildren)) {
+                // Cut off, its children get inserted back at their own level
+                collectChildren(n, subtrees);
+                parent.removeChild(n);
+            }
+            else n.tighten();
+
+            n = parent;
+        }
+
+        // now n is the root
+        n.tighten();
+        collapseRoot();
+
+        // add the orphans back
+        reinsertOrphans(orphans, subtrees);
+    }
+
+    /**
+     * Tree Compression for many changed leaves at once, level by level
+     * Each ancestor is tightened once, after all its changed children
+     * @param dirty - The leaves that lost entries
+     * @param orphans - Gets the entries cut off, to be inserted back
+     * @param subtrees - Gets the subtrees cut off, to be inserted back
+     */
+    private void condenseDirty(Set<RTreeNode<T>> dirty, List<T> orphans, List<RTreeNode<T>> subtrees) {
+        while (!dirty.isEmpty()) {
+            Set<RTreeNode<T>> parents = Collections.newSetFromMap(new IdentityHashMap<>());
+
+            for (RTreeNode<T> n : dirty) {
+                if (n == root) continue;
+                RTreeNode<T> parent = n.getParent();
+
+                if ( n.isLeaf() && (n.getItem().size() < minEntries)) {
+                    orphans.addAll(n.getItem());
+                    parent.removeChild(n);
+                }
+                else if (!n.isLeaf() && (n.getNumChildren() < minChildren)) {
+                    // Cut off, its children get inserted back at their own level
+                    collectChildren(n, subtrees);
+                    parent.removeChild(n);
+                }
+                else n.tighten();
+
+                parents.add(parent);
+            }
+
+            dirty = parents;
+        }
+
+        root.tighten();
+        collapseRoot();
+    }
+
+    /**
+     * Puts back what condensing cut off, subtrees first at their own level and then the entries in one batch
+     * Subtrees as tall as the tree has become are broken up a level at a time
+     * @param orphans - The entries cut off
+     * @param subtrees - The subtrees cut off
+     */
+    private void reinsertOrphans(List<T> orphans, List<RTreeNode<T>> subtrees) {
+        ArrayDeque<RTreeNode<T>> pending = new ArrayDeque<>(subtrees);
+        while (!pending.isEmpty()) {
+            RTreeNode<T> subtree = pending.poll();
+            int level = height(subtree);
+
+            if (level < height(root)) {
+                reinserted.clear();
+                insertSubtree(subtree, level);
+            }
+            else if (subtree.isLeaf()) orphans.addAll(subtree.getItem());
+            else collectChildren(subtree, pending);
+        }
+
+        insertBatch(orphans);
+    }
+
+    /**
+     * Tightens many changed leaves and their ancestors, each node once and children first
+     * @param dirty - The leaves that got entries
+     */
+    private void tightenDirty(Set<RTreeNode<T>> dirty) {
+        while (!dirty.isEmpty()) {
+            Set<RTreeNode<T>> parents = Collections.newSetFromMap(new IdentityHashMap<>());
+
+            for (RTreeNode<T> n : dirty) {
+                n.tighten();
+                if (n.getParent() != null) parents.add(n.getParent());
+            }
+
+            dirty = parents;
+        }
+    }
+
+    /**
+     * Replaces a root with a single child by the child, and an empty internal root by a leaf
+     */
+    private void collapseRoot() {
+        // roots with one child are not allowed
+        while (!root.isLeaf() && root.getNumChildren() == 1) {
+            RTreeNode<T> child = null;
+            for (int i = 0; i < root.childSlots(); ++i) if (root.neighbours[i] != null) child = (RTreeNode<T>) root.neighbours[i];
+
+            child.setParent(null);
+            root = child;
+        }
+
+        // Everything got cut off
+        if (!root.isLeaf() && root.getNumChildren() == 0) root = buildRoot(true);
+    }
+
+    /**
+     * Collects the children of n
+     */
+    private void collectChildren(RTreeNode<T> n, Collection<RTreeNode<T>> children) {
+        for (int i = 0; i < n.childSlots(); ++i)
+            if (n.neighbours[i] != null) children.add((RTreeNode<T>) n.neighbours[i]);
+    }
+
+    /**
+     * Collects every entry in the subtree of n
+     */
+    private void collectEntries(RTreeNode<T> n, Collection<T> entries) {
+        if (n.isLeaf()) entries.addAll(n.getItem());
+        else for (int i = 0; i < n.childSlots(); ++i)
+            if (n.neighbours[i] != null) collectEntries((RTreeNode<T>) n.neighbours[i], entries);
+    }
+
+
+    /**
+     * Inserting an entry into the R-Tree
+     */
+    public void insert(T entry) {
+        if (entry.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+
+        ++modCount;
+
+        // Every level may have one forced reinsert per insertion
+        reinserted.clear();
+        insertEntry(entry);
+    }
+
+    /**
+     * Inserts many entries, tightening the leaves they land in and their ancestors only once at the end
+     * Leaves that overflow are still split right away
+     * @param entries - The entries to insert
+     */
+    public void insertAll(Collection<T> entries) {
+        for (T e : entries) if (e.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+        ++modCount;
+        insertBatch(entries);
+    }
+
+    /**
+     * Inserts the entries, tightening only once at the end
      */
-    private RTreeNode<T> buildRoot(boolean asLeaf) {
-        Range<Double>[] ranges = new Range[numDims];
+    private void insertBatch(Collection<T> entries) {
+        Set<RTreeNode<T>> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (T entry : entries) {
+            reinserted.clear();
+
+            // Choose leaf, and add entry to it
+            RTreeNode<T> leaf = chooseLeaf(entry);
+            addEntry(leaf, entry);
+
+            // Splits change the structure, so they cannot wait
+            if ( leaf.getItem().size() > maxEntries ) overflowTreatment(leaf);
+            else dirty.add(leaf);
+        }
 
-        // Setting Largest Domain in each dimension
-        // ± sqrt(MAX_VALUE)
-        for ( int i = 0; i < this.numDims; i++ )
-            ranges[i] = new Range<>(
-                Math.sqrt(Double.MAX_VALUE),
-                -2.0f * Math.sqrt(Double.MAX_VALUE)
-            );
+        tightenDirty(dirty);
+    }
+
+    private void insertEntry(T entry) {
+        // Choose leaf, and add entry to it
+        RTreeNode<T> leaf = chooseLeaf(entry);
+        addEntry(leaf, entry);
+
+        // It is time to die leaf, you are too fat
+        if ( leaf.getItem().size() > maxEntries ) overflowTreatment(leaf);
 
-        return new RTreeNode<>(new ArrayList<>(), ranges, asLeaf, null);
+        // No splitting, just adjust the tree
+        else adjustTree(leaf, null);
     }
 
     /**
-     * Default Constructor
-     * (Basically a segment tree)
+     * Adds the entry to the leaf, and remembers where it went
      */
-    public RTree() {this(1, 0, 1);}
+    private void addEntry(RTreeNode<T> leaf, T entry) {
+        leaf.addEntry(entry);
+        leafOf.put(entry, leaf);
+    }
 
     /**
-     * Obtains the root
-     * @return root of the tree
+     * Inserts a subtree back at its own level
+     * @param child - The subtree to insert
+     * @param level - The level of the subtree, 0 being a leaf
      */
+    private void insertSubtree(RTreeNode<T> child, int level) {
+        // Walk down to the level right above the child
+        RTreeNode<T> n = root;
+        for (int h = height(root); h > level + 1; --h) n = chooseSubtree(n, child);
 
-    public RTreeNode<T> getRoot() {
-        return root;
+        n.addChild(child);
+        child.setParent(n);
+
+        if ( n.getNumChildren() > maxChildren ) overflowTreatment(n);
+        else adjustTree(n, null);
     }
 
     /**
-     * Searches the model.RTree for objects in query range
-     * @return list of entries of objects in query range
+     * Handles a node with too many entries or children
+     * R* mode reinserts part of it the first time a level overflows, otherwise it gets split
+     * @param n - The overflowing node
      */
-    public List<T> search(Range<Double>[] ranges) {
-        if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+    private void overflowTreatment(RTreeNode<T> n) {
+        if (reinsertInstead(n)) return;
 
-        LinkedList<T> results = new LinkedList<>();
-        search(root, ranges, results); // Actual Recursive function
-        return results;
+        RTreeNode<T>[] splits = splitNode(n);
+        adjustTree(splits[0], splits[1]);
     }
 
-    private void search(RTreeNode<T> n, Range<Double>[] ranges, LinkedList<T> results) {
-        if (ranges.length != numDims) throw new IllegalArgumentException("输入的数组大小不对");
+    /**
+     * In R* mode, the first overflow of each level in an insertion is a forced reinsert
+     * @return true if n was handled by reinserting
+     */
+    private boolean reinsertInstead(RTreeNode<T> n) {
+        if (mode != Mode.RSTAR || n == root) return false;
 
-        if (n.isLeaf()) // n is leaf, contains entries
-            for (T e: n.getItem()) { // For each entry
-                if (RTreeNode.isInRange(ranges, e.getParamValues()))
-                    results.add(e);
-            }
-        else // If not leaf, travel down the children
-            for (int i = 0; i < maxChildren; ++i) { // 2 children
-                // Subtree does not contain the query range or child does not exist
-                if (n.neighbours[i] == null || !RTreeNode.isOverlap(ranges, ((RTreeNode<T>) n.neighbours[i]).getRanges())) continue;
+        int level = height(n);
+        if (reinserted.get(level)) return false;
 
-                // If leaf domain is overlapping
-                search((RTreeNode<T>) n.neighbours[i], ranges, results);
-            }
+        reinserted.set(level);
+        forcedReinsert(n, level);
+        return true;
     }
 
     /**
-     * Deletes the entry associated with the given rectangle from the model.RTree
-     * @param entry the entry to delete
-     * @return true if the entry was deleted from the model.RTree.
+     * Removes the entries or children furthest from the centre of n and inserts them again
+     * @param n - The overflowing node
+     * @param level - The level of n, 0 being a leaf
      */
-    public boolean delete(T entry) {
-        RTreeNode<T> leaf = findLeaf(root, entry.getParamValues(), entry);
+    private void forcedReinsert(RTreeNode<T> n, int level) {
+        int p = Math.max(1, (int) Math.round(REINSERT_FRACTION * (n.isLeaf() ? maxEntries : maxChildren)));
 
-        // Some checks
-        if (leaf == null) throw new IllegalStateException("找不到树叶");
-        if (!leaf.isLeaf()) throw new IllegalStateException("找到的不是树叶");
+        double[] centre = new double[numDims];
+        for (int dim = 0; dim < numDims; ++dim) centre[dim] = (n.ranges[dim].getMin() + n.ranges[dim].getMax()) / 2;
 
-        for (T e : leaf.getItem()) {
-            // Reject if not entry
-            if ( !e.equals(entry) ) continue;
+        if (n.isLeaf()) {
+            // Furthest entries first
+            List<T> items = new ArrayList<>(n.getItem());
+            items.sort(Comparator.comparingDouble(e -> -distanceSq(centre, e)));
 
-            // Entry found, kill it now
-            leaf.getItem().remove(e);
-            condenseTree(leaf); // Try to reduce tree size
-            return true;
+            n.getItem().clear();
+            n.getItem().addAll(items.subList(p, items.size()));
+            adjustTree(n, null);
+
+            // Close reinsert, the nearest of the removed goes in first
+            for (int i = p - 1; i >= 0; --i) insertEntry(items.get(i));
         }
 
-        // Deletion failed
-        return false;
+        else {
+            // Furthest children first
+            List<RTreeNode<T>> children = new ArrayList<>();
+            for (int i = 0; i < n.childSlots(); ++i) if (n.neighbours[i] != null) children.add((RTreeNode<T>) n.neighbours[i]);
+            children.sort(Comparator.comparingDouble(c -> -distanceSq(centre, c)));
+
+            for (int i = 0; i < p; ++i) n.removeChild(children.get(i));
+            adjustTree(n, null);
+
+            for (int i = p - 1; i >= 0; --i) insertSubtree(children.get(i), level - 1);
+        }
+    }
+
+    private double distanceSq(double[] centre, T e) {
+        double dist = 0.0;
+        for (int dim = 0; dim < numDims; ++dim) dist += (e.getParamValue(dim) - centre[dim]) * (e.getParamValue(dim) - centre[dim]);
+        return dist;
+    }
+
+    private double distanceSq(double[] centre, RTreeNode<T> n) {
+        double dist = 0.0;
+        for (int dim = 0; dim < numDims; ++dim) {
+            double mid = (n.ranges[dim].getMin() + n.ranges[dim].getMax()) / 2;
+            dist += (mid - centre[dim]) * (mid - centre[dim]);
+        }
+        return dist;
     }
 
     /**
-     * Called to propagate the deletion of a node
-     * @param node - The GhostNode to delete
+     * Smallest squared distance from the point to anything inside the domain of n (MINDIST)
      */
-    public boolean delete(GhostNode<T> node) {
-        if (node.getRanges().length != numDims) throw new IllegalArgumentException("输入的范围大小不对");
+    private double minDistanceSq(double[] point, RTreeNode<T> n) {
+        double dist = 0.0;
+        for (int dim = 0; dim < numDims; ++dim) {
+            double lo = n.ranges[dim].getMin(), hi = n.ranges[dim].getMax();
+            if (point[dim] < lo) dist += (lo - point[dim]) * (lo - point[dim]);
+            else if (point[dim] > hi) dist += (point[dim] - hi) * (point[dim] - hi);
+        }
+        return dist;
+    }
+
+    /**
+     * Number of levels below n, the tree is balanced so any path will do
+     */
+    private int height(RTreeNode<T> n) {
+        int h = 0;
+        for (; !n.isLeaf(); ++h) n = firstChild(n);
+        return h;
+    }
+
+    private RTreeNode<T> firstChild(RTreeNode<T> n) {
+        for (int i = 0; i < n.childSlots(); ++i) if (n.neighbours[i] != null) return (RTreeNode<T>) n.neighbours[i];
+        throw new IllegalStateException("没有孩子");
+    }
 
-        RTreeNode<T> parent = root; // parent of n_node (will be found soon)
+    /**
+     * Loads all the entries at once with Sort-Tile-Recursive packing, O(n log n)
+     * Entries already in the tree are packed together with the new ones
+     * Large loads sort in parallel
+     * @param entries - The entries to load
+     */
+    public void bulkLoad(Collection<T> entries) {
+        bulkLoad(entries, entries.size() >= PARALLEL_BULK_LOAD);
+    }
 
-        for (int lvl = 0; lvl < node.getId().length; ++lvl) {
+    /**
+     * Loads all the entries at once with Sort-Tile-Recursive packing, O(n log n)
+     * Entries already in the tree are packed together with the new ones
+     * @param entries - The entries to load
+     * @param parallel - Whether to sort each slice with the fork-join pool
+     */
+    public void bulkLoad(Collection<T> entries, boolean parallel) {
+        for (T e : entries) if (e.getNumParams() != numDims) throw new IllegalArgumentException("输入的大小不对");
+
+        ++modCount;
+        List<T> all = new ArrayList<>(entries);
+        collectEntries(root, all);
+        if (all.isEmpty()) {
+            root = buildRoot(true);
+            return;
+        }
 
-            for (Node<List<T>> child : parent.neighbours) {
-                if (child != node) continue;
+        // Pack the leaves
+        List<RTreeNode<T>> level = new ArrayList<>();
+        for (List<T> group : tile((T[]) all.toArray(new RTreeEntry[0]), maxEntries, minEntries, RTreeEntry::getParamValue, parallel)) {
+            RTreeNode<T> leaf = new RTreeNode<>(new ArrayList<>(group), emptyRanges(), true, null, maxChildren);
+            for (T e : group) leafOf.put(e, leaf);
+            leaf.tighten();
+            level.add(leaf);
+        }
 
-                // Child found, delete it and condense tree
-                parent.removeChild((RTreeNode<T>) child);
-                condenseTree(parent);
-                return true;
+        // Then pack each level of nodes by their centres until there is one left
+        while (level.size() > 1) {
+            List<RTreeNode<T>> parents = new ArrayList<>();
+            RTreeNode<T>[] nodes = level.toArray(new RTreeNode[0]);
+            Coordinate<RTreeNode<T>> centre = (n, dim) -> n.ranges[dim].getMin() + n.ranges[dim].getMax();
+
+            for (List<RTreeNode<T>> group : tile(nodes, maxChildren, minChildren, centre, parallel)) {
+                RTreeNode<T> parent = new RTreeNode<>(new ArrayList<>(), emptyRanges(), false, null, maxChildren);
+                for (RTreeNode<T> child : group) {
+                    parent.addChild(child);
+                    child.setParent(parent);
+                }
+                parent.tighten();
+                parents.add(parent);
             }
-
-            // Not found at this level, go down
-            parent = (RTreeNode<T>) root.neighbours[node.getId()[lvl] ? 1 : 0];
+            level = parents;
         }
 
-        return false;
+        root = level.get(0);
     }
 
+    /**
+     * Reads a coordinate of an item being packed
+     */
+    private interface Coordinate<X> {
+        double get(X item, int dim);
+    }
 
     /**
-     * Searches for the leaf containing the entry
-     * @param n - The root of subtree to find leaf in
-     * @param params - The param values of entry (precomputed to prevent wasting time)
-     * @param entry - The entry to find
+     * Sort-Tile-Recursive grouping, sorts by one dimension, cuts into slabs, and recurses into the next dimension
+     * @param items - The items to group, gets reordered
+     * @param capacity - The maximum group size
+     * @param min - The minimum group size
+     * @param coord - Reads the coordinate of an item
+     * @param parallel - Whether to sort with the fork-join pool
+     * @return the groups, each with between min and capacity items
      */
-    private RTreeNode<T> findLeaf(RTreeNode<T> n, Double[] params, T entry) {
-        if (params.length != n.getRanges().length) throw new IllegalArgumentException("输入的数组大小不对");
+    private <X> List<List<X>> tile(X[] items, int capacity, int min, Coordinate<X> coord, boolean parallel) {
+        List<List<X>> groups = new ArrayList<>();
+        tile(items, 0, items.length, 0, capacity, coord, parallel, groups);
 
-        if (n.isLeaf())
-            for (T e: n.getItem()) {
-                if (!e.equals(entry)) continue;
-                return n; // RTreeNode found
-            }
+        // The last group of a slab can come out too small, so share with the group before it
+        for (int i = 1; i < groups.size(); ++i) {
+            if (groups.get(i).size() >= min) continue;
 
-        else
-            for ( int i = 0; i < maxChildren; ++i ) {
-                // ignore null children
-                if (n.neighbours[i] == null) continue;
-                // If child does not include entry range
-                if (!RTreeNode.isInRange(((RTreeNode<T>) n.neighbours[i]).getRanges(), params)) continue;
+            List<X> merged = new ArrayList<>(groups.get(i - 1));
+            merged.addAll(groups.get(i));
 
-                // Recurse to find entry in children
-                RTreeNode<T> result = findLeaf((RTreeNode<T>) n.neighbours[i], params, entry);
-                if ( result != null ) return result;
+            if (merged.size() <= capacity) {
+                groups.set(i - 1, merged);
+                groups.remove(i--);
+            }
+            else {
+                groups.set(i - 1, merged.subList(0, merged.size() / 2));
+                groups.set(i, merged.subList(merged.size() / 2, merged.size()));
             }
+        }
+
+        return groups;
+    }
+
+    private <X> void tile(X[] items, int from, int to, int dim, int capacity, Coordinate<X> coord, boolean parallel, List<List<X>> groups) {
+        Comparator<X> byDim = Comparator.comparingDouble(x -> coord.get(x, dim));
+        if (parallel) Arrays.parallelSort(items, from, to, byDim);
+        else Arrays.sort(items, from, to, byDim);
+
+        // Last dimension, just cut into full groups
+        if (dim == numDims - 1) {
+            for (int i = from; i < to; i += capacity)
+                groups.add(Arrays.asList(items).subList(i, Math.min(to, i + capacity)));
+            return;
+        }
+
+        // Cut into slabs of whole groups, with as many slabs in each remaining dimension
+        int pages = (to - from + capacity - 1) / capacity;
+        int slabs = (int) Math.ceil(Math.pow(pages, 1.0 / (numDims - dim)));
+        int slabSize = capacity * ((pages + slabs - 1) / slabs);
 
-        // Nothing :(
-        return null;
+        for (int i = from; i < to; i += slabSize)
+            tile(items, i, Math.min(to, i + slabSize), dim + 1, capacity, coord, parallel, groups);
     }
 
     /**
-     * Tree Compression with node as subtree root
-     * @param n the subtree root
+     * Ranges for a new node, filled in by tighten
      */
+    private Range<Double>[] emptyRanges() {
+        Range<Double>[] ranges = new Range[numDims];
+        for (int i = 0; i < numDims; ++i) ranges[i] = new Range<>(0.0, 0.0);
+        return ranges;
+    }
 
-    private void condenseTree(RTreeNode<T> n) {
-        Set<T> orphans = new HashSet<>(); // Does this need to be a set?
+    /**
+     * Saves the tree to file, to be loaded again with loadSnapshot instead of inserting everything again
+     * Children are not stored, they are just the next nodes in breadth first order
+     * It is written next to the file first and moved over it when done, and removed again if anything fails
+     * @param codec - Writes the entries, loadSnapshot needs the same one
+     */
+    public void writeSnapshot(Path file, EntryCodec<T> codec) throws IOException {
+        int entrySize = codec.size();
+        int nodeBytes = NODE_HEADER + 2 * numDims * Double.BYTES;
+        ByteBuffer buf = ByteBuffer.allocate(Math.max(SNAPSHOT_BUFFER, nodeBytes + (maxEntries + 1) * entrySize));
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                buf.position(SNAPSHOT_HEADER); // Filled in once the counts are known
+
+                long numNodes = 0, numEntries = 0;
+                ArrayDeque<RTreeNode<T>> queue = new ArrayDeque<>();
+                queue.add(root);
+                while (!queue.isEmpty()) {
+                    RTreeNode<T> n = queue.poll();
+                    if (n instanceof GhostNode) throw new IllegalStateException("GhostNode存不了");
+
+                    int count = n.isLeaf() ? n.getItem().size() : (int) n.getNumChildren();
+                    if (buf.remaining() < nodeBytes + (n.isLeaf() ? count * entrySize : 0)) drain(channel, buf);
+
+                    buf.put(n.isLeaf() ? SNAPSHOT_LEAF : SNAPSHOT_INTERNAL).putInt(count);
+                    for (int dim = 0; dim < numDims; ++dim) buf.putDouble(n.ranges[dim].getMin());
+                    for (int dim = 0; dim < numDims; ++dim) buf.putDouble(n.ranges[dim].getMax());
+
+                    if (n.isLeaf()) for (T e : n.getItem()) Nodes.write(codec, e, buf);
+                    else for (int i = 0; i < n.childSlots(); ++i)
+                        if (n.neighbours[i] != null) queue.add((RTreeNode<T>) n.neighbours[i]);
+
+                    ++numNodes;
+                    if (n.isLeaf()) numEntries += count;
+                }
+                drain(channel, buf);
 
-        while ( n != root ) {
-            if ( n.isLeaf() && (n.getItem().size() < minEntries)) {
-                orphans.addAll(n.getItem());
-                ((RTreeNode<T>) n.neighbours[3]).removeChild(n);
-            }
-            else if (!n.isLeaf() && (n.getNumChildren() < minChildren)) {
-                // This only works for our case where minChildren is 1
-                // Since the node would have 0 children when it has below minChildren amount of children
-                ((RTreeNode<T>) n.neighbours[3]).removeChild(n);
+                ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER);
+                header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(numDims).putInt(entrySize)
+                        .putLong(numNodes).putLong(numEntries).flip();
+                while (header.hasRemaining()) channel.write(header, header.position());
+                channel.force(true);
             }
-            else n.tighten();
-
-            n = (RTreeNode<T>) n.neighbours[3];
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // Half a snapshot is no use to anyone
+            Files.deleteIfExists(tmp);
+            throw e;
         }
+    }
 
-        // now n is the root
-        if (n.neighbours[0] == null ^ n.neighbours[1] == null) {
-            // roots with one child are not allowed
-            RTreeNode<T> child = (RTreeNode<T>) (n.neighbours[0] == null ? n.neighbours[1] : n.neighbours[0]);
-            child.neighbours[3] = null;
-            root = child;
+    private static void drain(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) channel.write(buf);
+        buf.clear();
+    }
+
+    /**
+     * Replaces everything in the tree with a snapshot from writeSnapshot
+     * The file is memory mapped and every node is rebuilt as it was saved, so nothing is split or sorted
+     * The nodes must fit in this tree, so it needs at least the fanouts of the one that saved it
+     * @param codec - Reads the entries, the same one the snapshot was written with
+     */
+    public void loadSnapshot(Path file, EntryCodec<T> codec) throws IOException {
+        int entrySize = codec.size();
+        RTreeNode<T>[] nodes;
+        int[] firstChild, numChildren;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedInput in = new MappedInput(channel);
+            ByteBuffer buf = in.need(SNAPSHOT_HEADER);
+            if (buf.getInt() != SNAPSHOT_MAGIC) throw new IllegalArgumentException("不是快照");
+            if (buf.getInt() != SNAPSHOT_VERSION) throw new IllegalArgumentException("快照的版本不对");
+            if (buf.getInt() != numDims || buf.getInt() != entrySize) throw new IllegalArgumentException("快照的大小不对");
+
+            long numNodes = buf.getLong(), numEntries = buf.getLong();
+            if (numNodes < 1 || numNodes > Integer.MAX_VALUE) throw new IllegalArgumentException("快照有问题");
+
+            nodes = new RTreeNode[(int) numNodes];
+            firstChild = new int[nodes.length];
+            numChildren = new int[nodes.length];
+            int next = 1; // First node not claimed as a child yet
+            long loaded = 0;
+
+            for (int i = 0; i < nodes.length; ++i) {
+                buf = in.need(NODE_HEADER + 2 * numDims * Double.BYTES);
+                byte kind = buf.get();
+                int count = buf.getInt();
+                boolean leaf = kind == SNAPSHOT_LEAF;
+                if (!leaf && kind != SNAPSHOT_INTERNAL || count < 0) throw new IllegalArgumentException("快照有问题");
+                if (count > (leaf ? maxEntries : maxChildren)) throw new IllegalArgumentException("快照的节点太大");
+
+                // The saved domains are kept, so tighten finds nothing to change and boxes nothing
+                double[] lo = new double[numDims];
+                for (int dim = 0; dim < numDims; ++dim) lo[dim] = buf.getDouble();
+                Range<Double>[] ranges = new Range[numDims];
+                for (int dim = 0; dim < numDims; ++dim) ranges[dim] = new Range<>(lo[dim], buf.getDouble());
+
+                List<T> items = new ArrayList<>(leaf ? count : 0);
+                nodes[i] = new RTreeNode<>(items, ranges, leaf, null, maxChildren);
+
+                if (leaf) {
+                    buf = in.need(count * entrySize);
+                    for (int j = 0; j < count; ++j) items.add(Nodes.read(codec, buf));
+                    loaded += count;
+                }
+                else {
+                    firstChild[i] = next;
+                    numChildren[i] = count;
+                    next += count;
+                    if (next > nodes.length) throw new IllegalArgumentException("快照有问题");
+                }
+            }
+            if (next != nodes.length || loaded != numEntries) throw new IllegalArgumentException("快照有问题");
         }
 
-        for (T entry: orphans) {
-            // add the orphans back
-            insert(entry);
+        // All read, only now touch the tree
+        ++modCount;
+        leafOf.clear();
+
+        // Children come after their parents, so going backwards every subtree is done before it is linked
+        for (int i = nodes.length - 1; i >= 0; --i) {
+            RTreeNode<T> n = nodes[i];
+            if (n.isLeaf()) for (T e : n.getItem()) leafOf.put(e, n);
+            else for (int j = firstChild[i]; j < firstChild[i] + numChildren[i]; ++j) {
+                n.addChild(nodes[j]);
+                nodes[j].setParent(n);
+            }
+            n.tighten(); // Counts the entries and measures
         }
-    }
 
+        root = nodes[0].isLeaf() && nodes[0].getItem().isEmpty() ? buildRoot(true) : nodes[0];
+    }
 
     /**
-     * Inserting an entry into the R-Tree
+     * Reads a file through windows of memory mapping, moving the window on when a read does not fit
      */
-    public void insert(T entry) {
-        if (entry.getParamValues().length != numDims) throw new IllegalArgumentException("输入的大小不对");
+    private static final class MappedInput {
+        private final FileChannel channel;
+        private MappedByteBuffer window;
+        private long start; // Where the window is in the file
 
-        // Choose leaf, and add entry to it
-        RTreeNode<T> leaf = chooseLeaf(root, entry);
-        leaf.addEntry(entry);
+        MappedInput(FileChannel channel) {
+            this.channel = channel;
+        }
 
-        // It is time to die leaf, you are too fat
-        if ( leaf.getItem().size() > maxEntries ) {
-            RTreeNode<T>[] splits = splitNode(leaf);
-            adjustTree(splits[0], splits[1]);
+        /**
+         * @return the window, with at least bytes left from its position
+         */
+        ByteBuffer need(int bytes) throws IOException {
+            if (window != null && window.remaining() >= bytes) return window;
+
+            long at = window == null ? 0 : start + window.position();
+            long size = Math.min(channel.size() - at, Math.max(bytes, MAP_WINDOW));
+            if (size < bytes) throw new IllegalArgumentException("快照太短");
+
+            start = at;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, at, size);
+            return window;
         }
-        // No splitting, just adjust the tree
-        else adjustTree(leaf, null);
     }
 
     /**
      * Inserting the ghost node
      * Called to propagate changes from other branches
+     * @param n_node - The GhostNode to insert, standing in for a subtree as tall as itself
+     * @param parentId - Path id of the node to hang it under, one level above the ghost
+     * @throws IllegalStateException if there is no such node at that level
      */
-    public void insert(GhostNode<T> n_node) {
-        RTreeNode<T> parent = root; // parent of n_node (will be found soon)
+    public void insert(GhostNode<T> n_node, long parentId) {
+        if (n_node.getRanges().length != numDims) throw new IllegalArgumentException("输入的范围大小不对");
 
-        for (int lvl = 0; lvl < n_node.getId().length; ++lvl) {
-            // If we cannot take the next step, we insert here
-            if (parent.neighbours[n_node.getId()[lvl] ? 1 : 0] == null || !(parent.neighbours[n_node.getId()[lvl] ? 1 : 0] instanceof GhostNode)) {
-                // Add to parent
-                parent.addChild(n_node);
+        RTreeNode<T> parent = nodeOf(parentId); // parent of n_node
+        if (parent == null || parent.getHeight() != n_node.getHeight() + 1) throw new IllegalStateException("找不到输入顶点的长辈");
+        ++modCount;
 
-                // It is time to die parent, you are too fat
-                if ( parent.neighbours.length > maxChildren ) {
-                    RTreeNode<T>[] splits = splitNode(parent);
-                    adjustTree(splits[0], splits[1]);
-                }
-                // No splitting, just adjust the tree
-                else adjustTree(parent, null);
+        // Add to parent
+        parent.addChild(n_node);
+        n_node.setParent(parent);
 
-                // Insertion Successful
-                return;
-            }
-            else parent = (RTreeNode<T>) root.neighbours[n_node.getId()[lvl] ? 1 : 0];
+        // It is time to die parent, you are too fat
+        if ( parent.getNumChildren() > maxChildren ) {
+            RTreeNode<T>[] splits = splitNode(parent);
+            adjustTree(splits[0], splits[1]);
         }
-
-        throw new IllegalStateException("找不到输入顶点的长辈");
+        // No splitting, just adjust the tree
+        else adjustTree(parent, null);
     }
 
 
     /**
-     * Selects the best leaf to insert the given entry
-     * @param n - The root to find the leaf in
+     * Selects the best leaf to insert the given entry, walking down from the root
      * @param entry - The entry to insert
      */
-    private RTreeNode<T> chooseLeaf(RTreeNode<T> n, T entry) {
-        // Well it is the leaf
-        if ( n.isLeaf() ) return n;
+    private RTreeNode<T> chooseLeaf(T entry) {
+        return chooseLeaf(entry, root);
+    }
+
+    /**
+     * Same, but only within the subtree of start
+     */
+    private RTreeNode<T> chooseLeaf(T entry, RTreeNode<T> start) {
+        RTreeNode<T> n = start;
+
+        // Well until it is the leaf
+        while ( !n.isLeaf() ) {
+            // R* mode cares about overlap right above the leaves
+            if ( mode == Mode.RSTAR && firstChild(n).isLeaf() ) return leastOverlapChild(n, entry);
+            n = chooseChild(n, entry);
+        }
+        return n;
+    }
 
+    /**
+     * The child of n whose area grows the least to hold the entry, ties go to the smaller one
+     */
+    private RTreeNode<T> chooseChild(RTreeNode<T> n, T entry) {
         // Keeps the minimum increment in area
         double minInc = Double.MAX_VALUE;
 
@@ -286,7 +1529,7 @@ public class RTree<T extends RTreeEntry> {
         double bestArea = Double.MAX_VALUE; // To tiebreak by area
 
         // For each child
-        for ( int k = 0; k < 2; ++k ) {
+        for ( int k = 0; k < n.childSlots(); ++k ) {
             if (n.neighbours[k] == null) continue; // Child does not exist
 
             RTreeNode<T> child = (RTreeNode<T>) n.neighbours[k];
@@ -304,345 +1547,199 @@ public class RTree<T extends RTreeEntry> {
             bestArea = area;
         }
 
-        // Explore down into the child
         if (next == null) throw new IllegalStateException("没有适合的孩子");
-        return chooseLeaf(next, entry);
+        return next;
     }
 
-    private void adjustTree(RTreeNode<T> node, RTreeNode<T> sibling) {
-        node.tighten();
-        if (sibling != null) sibling.tighten();
+    /**
+     * Selects the child whose overlap with its siblings grows the least when the entry is added
+     * Ties are broken by area expansion and then by area
+     * @param n - The parent of leaves
+     * @param entry - The entry to insert
+     */
+    private RTreeNode<T> leastOverlapChild(RTreeNode<T> n, T entry) {
+        RTreeNode<T> best = null;
+        double minOverlap = Double.MAX_VALUE, minInc = Double.MAX_VALUE, bestArea = Double.MAX_VALUE;
 
-        if ( node == root ) { // Base case when node is root
+        for ( int k = 0; k < n.childSlots(); ++k ) {
+            if (n.neighbours[k] == null) continue; // Child does not exist
+            RTreeNode<T> child = (RTreeNode<T>) n.neighbours[k];
 
-            // There is a sibling to the root? this means node is not the root
-            // We need to create a new root!
-            if ( sibling != null ) {
-                // build new root and add children.
-                root = buildRoot(false);
+            // Sum up the overlap gained with every sibling
+            double overlap = 0.0;
+            for ( int j = 0; j < n.childSlots(); ++j ) {
+                if (j == k || n.neighbours[j] == null) continue;
+                Range<Double>[] sibling = ((RTreeNode<T>) n.neighbours[j]).ranges;
 
-                root.addChild(node);
-                root.addChild(sibling);
+                double before = 1.0, after = 1.0;
+                for (int dim = 0; dim < numDims; ++dim) {
+                    double min = child.ranges[dim].getMin(), max = child.ranges[dim].getMax();
+                    double coord = entry.getParamValue(dim);
 
-                // Register new root as parent
-                node.neighbours[3] = root;
-                sibling.neighbours[3] = root;
+                    before *= Math.max(0.0, Math.min(max, sibling[dim].getMax()) - Math.max(min, sibling[dim].getMin()));
+                    after *= Math.max(0.0, Math.min(Math.max(max, coord), sibling[dim].getMax()) - Math.max(Math.min(min, coord), sibling[dim].getMin()));
+                }
+                overlap += after - before;
             }
 
-            // Update the root domain
-            root.tighten();
-            return;
-        }
+            double inc = child.getAreaExpansion(entry);
+            double area = getArea(child);
 
+            // Not the best node unless it wins on overlap, then expansion, then area
+            if (overlap > minOverlap) continue;
+            if (overlap == minOverlap && (inc > minInc || (inc == minInc && area >= bestArea))) continue;
 
-        if ( ((RTreeNode<T>) node.neighbours[3]).getNumChildren() > maxChildren ) {
-            RTreeNode<T>[] splits = splitNode((RTreeNode<T>) node.neighbours[3]);
-            adjustTree(splits[0], splits[1]); // Recurse up with 2 nodes instead of one
+            best = child;
+            minOverlap = overlap;
+            minInc = inc;
+            bestArea = area;
         }
 
-        else // Recurse up
-            adjustTree((RTreeNode<T>) node.neighbours[3], null);
+        if (best == null) throw new IllegalStateException("没有适合的孩子");
+        return best;
     }
 
-
     /**
-     * Splits a node, returning 2 nodes, left and right.
-     * ! The actual node itself is recycled as left node
-     *
-     * ! Does not randomise insertion into nodes, but factors are enough to make this fast
-     * @param n The node to split
+     * Selects the child of n needing the least area expansion to hold the given subtree
      */
-    private RTreeNode<T>[] splitNode(RTreeNode<T> n) {
-        // If it is leaf, call the other function
-        if (n == null || n.isLeaf()) return splitLeaf(n);
-
-        // Generate the new nodes (Recycle the old node)
-        // have to deep copy ranges
-        Range<Double>[] newRanges = new Range[numDims];
-        for (int i = 0; i < numDims; ++i) {
-            newRanges[i] = new Range<>(n.getRanges()[i].getMin(), n.getRanges()[i].getMax());
-        }
-        RTreeNode<T>[] n_nodes = new RTreeNode[] {n, new RTreeNode<>(new LinkedList<>(), newRanges, false, (RTreeNode<T>) n.neighbours[3])};
-
-        // Add children to parent
-        if ( n_nodes[1].neighbours[3] != null ) ((RTreeNode<T>) n_nodes[1].neighbours[3]).addChild(n_nodes[1]);
-
-        // List of entries and clear n for reuse
-        LinkedList<RTreeNode<T>> cc = new LinkedList<>();
-        for (int i = 0; i < 3; ++i) {
-            // Non-existent
-            if (n.neighbours[i] == null) continue;
-            cc.add((RTreeNode<T>) n.neighbours[i]);
-            n.removeChild(i);
-        }
-
-        // Select the first elements to add
-        ArrayList<RTreeNode<T>> ss = pickNodeSeeds(cc);
-        n_nodes[0].addChild(ss.get(0));
-        ss.get(0).neighbours[3] = n_nodes[0];
-
-        n_nodes[1].addChild(ss.get(1));
-        ss.get(1).neighbours[3] = n_nodes[1];
-
-        // While there are still stuff to add
-        while ( !cc.isEmpty() ) {
-            // This while loop is to make it nicer
-            // In actuality this is only run once due to constrains
-
-            RTreeNode<T> c = cc.pop();         // The entry to add
-
-
-            // Factor 1: Select node with smaller expansion //
-            // Get expansion of area to insert c
-            double e0 = n_nodes[0].getAreaExpansion(c);
-            double e1 = n_nodes[1].getAreaExpansion(c);
-            // If factor differentiates, insert and move on
-            if (e0 != e1) {
-                n_nodes[e0 < e1 ? 0 : 1].addChild(c);
-                c.neighbours[3] = n_nodes[e0 < e1 ? 0 : 1];
-                continue;
-            }
-
+    private RTreeNode<T> chooseSubtree(RTreeNode<T> n, RTreeNode<T> subtree) {
+        RTreeNode<T> next = null;
+        double minInc = Double.MAX_VALUE, bestArea = Double.MAX_VALUE;
 
-            // Factor 2: Select smaller node //
-            double a0 = getArea(n_nodes[0]); // Calculates the Initial Area
-            double a1 = getArea(n_nodes[1]); // Calculates the Initial Area
-            // If factor differentiates, insert and move on
-            if (a0 != a1) {
-                n_nodes[a0 < a1 ? 0 : 1].addChild(c);
-                c.neighbours[3] = n_nodes[a0 < a1 ? 0 : 1];
-                continue;
-            }
+        for ( int k = 0; k < n.childSlots(); ++k ) {
+            if (n.neighbours[k] == null) continue; // Child does not exist
+            RTreeNode<T> child = (RTreeNode<T>) n.neighbours[k];
 
+            double inc = child.getAreaExpansion(subtree);
+            double area = getArea(child);
+            if (inc > minInc || (inc == minInc && area >= bestArea)) continue;
 
-            // Factor 3: Decide on number of entries //
-            c.neighbours[3] = n_nodes[n_nodes[0].getNumChildren() < n_nodes[1].getNumChildren() ? 0 : 1];
-            n_nodes[n_nodes[0].getNumChildren() < n_nodes[1].getNumChildren() ? 0 : 1].addChild(c);
+            next = child;
+            minInc = inc;
+            bestArea = area;
         }
 
-        // Restrict their ranges
-        n_nodes[0].tighten();
-        n_nodes[1].tighten();
-
-        // And returns the new nodes
-        return n_nodes;
+        if (next == null) throw new IllegalStateException("没有适合的孩子");
+        return next;
     }
 
-
     /**
-     * Selects the 2 entries acting as the splitting pair
-     * One goes in left and the other goes in right
-     * Everything else will is only better in one than the other
-     * <p>
-     * The picked entries are ejected from the list passed in
-     *
-     * @param children - The list of entries to split
+     * Walks up from node, tightening each level and handling overflowing parents on the way
+     * @param node - The node that changed
+     * @param sibling - The node it was split into, if any
      */
-    private ArrayList<RTreeNode<T>> pickNodeSeeds(LinkedList<RTreeNode<T>> children) {
-        // keeps track of the best separation between the center 2 nodes
-        double bestSep = 0.0;
-
-        // The best pair of children to split by
-        ArrayList<RTreeNode<T>> bestPair = new ArrayList<>(2);
-        bestPair.add(null); bestPair.add(null); // this is an array but java dont like a real array
+    private void adjustTree(RTreeNode<T> node, RTreeNode<T> sibling) {
+        while ( node != root ) {
+            node.tighten();
+            if (sibling != null) sibling.tighten();
 
-        for ( int dim = 0; dim < numDims; dim++ ) { // For each dimension
+            RTreeNode<T> parent = node.getParent();
 
-            // Variables to keep track of range of min and max in the dimension
-            double dimLb = Double.MAX_VALUE, dimUb = Double.MAX_VALUE;
+            if ( parent.getNumChildren() > maxChildren ) { // Split or reinsert, then go up
+                if (reinsertInstead(parent)) return;
 
-            // Getting max and min for normalisation
-            for (RTreeNode<T> e : children) {
-                // Comparing and updating the min max, etc.
-                if (e.getRanges()[dim].getMin() < dimLb) dimLb = e.getRanges()[dim].getMin(); // The minimum
-                if (e.getRanges()[dim].getMax() > dimUb) dimUb = e.getRanges()[dim].getMax(); // The maximum
+                RTreeNode<T>[] splits = splitNode(parent);
+                node = splits[0];
+                sibling = splits[1];
+            }
+            else { // Go up
+                node = parent;
+                sibling = null;
             }
+        }
 
-            // For each pair of children
-            // While this is O(children ^2), the max no of children is 2, so this is just O(4) = O(1)
-            // I love abusing constants
-            for (RTreeNode<T> e1 : children) for (RTreeNode<T> e2 : children) if (e1 != e2) {
+        node.tighten();
+        if (sibling != null) sibling.tighten();
 
-                double dimMinUb = Math.max(e1.ranges[dim].getMin(), e2.ranges[dim].getMin());
-                double dimMaxLb = Math.min(e1.ranges[dim].getMax(), e2.ranges[dim].getMax());
+        // There is a sibling to the root? this means node is not the root
+        // We need to create a new root!
+        if ( sibling != null ) {
+            // build new root and add children.
+            root = buildRoot(false);
 
-                // Calculate the pairs separation value
-                double sep = Math.abs((dimMinUb - dimMaxLb) / (dimUb - dimLb));
+            root.addChild(node);
+            root.addChild(sibling);
 
-                // Check if this split the array "more"
-                if ( sep >= bestSep ) {
-                    // Maximises the split and replaces the smaller one
-                    bestPair.set(0, e1);
-                    bestPair.set(1, e2);
-                    bestSep = sep;
-                }
-            }
+            // Register new root as parent
+            node.setParent(root);
+            sibling.setParent(root);
         }
 
-        children.remove(bestPair.get(0));
-        children.remove(bestPair.get(1));
-        return bestPair;
+        // Update the root domain
+        root.tighten();
     }
 
+
     /**
-     * Splits a leaf, returning 2 nodes, left and right leaves
-     * ! The actual node itself is recycled as left node
-     *
-     * ! Does not randomise insertion into nodes, but factors are enough to make this fast
-     * @param n The node to split
+     * Creates an empty node next to n, added to the parent of n if there is one
+     * @param n - The node to be split
      */
-    private RTreeNode<T>[] splitLeaf(RTreeNode<T> n) {
-        // Java was scream so here, to appease you
-        if (n == null) return null;
-
-        // Generate the new nodes (Recycle the old node)
+    private RTreeNode<T> buildSibling(RTreeNode<T> n) {
         // have to deep copy ranges
         Range<Double>[] newRanges = new Range[numDims];
         for (int i = 0; i < numDims; ++i) {
             newRanges[i] = new Range<>(n.getRanges()[i].getMin(), n.getRanges()[i].getMax());
         }
-        RTreeNode<T>[] n_nodes = new RTreeNode[] {n, new RTreeNode<>(new LinkedList<>(), newRanges, true, (RTreeNode<T>) n.neighbours[3])};
+        RTreeNode<T> sibling = new RTreeNode<>(new ArrayList<>(), newRanges, n.isLeaf(), n.getParent(), maxChildren);
 
         // Add children to parent
-        if ( n_nodes[1].neighbours[3] != null ) ((RTreeNode<T>) n_nodes[1].neighbours[3]).addChild(n_nodes[1]);
-
-        // List of entries and clear n for reuse
-        LinkedList<T> cc = new LinkedList<>(n.getItem());
-        n.getItem().clear();
-
-        n.neighbours = new RTreeNode[] {null, null, null, (RTreeNode<T>) n.neighbours[3]}; // Clear the neighbours
-
-        // Select the first elements to add
-        ArrayList<T> ss = pickLeafSeeds(cc);
-        n_nodes[0].addEntry(ss.get(0));
-        n_nodes[1].addEntry(ss.get(1));
-
-        // While there are still stuff to add
-        while ( !cc.isEmpty() ) {
-            if ((n_nodes[0].getItem().size() >= minEntries) &&
-                (n_nodes[1].getItem().size() + cc.size() == minEntries)) {
-                // Case 1: Dump everything into the right node to meet min
-                n_nodes[1].addEntries(cc);
-                cc.clear();
-                return n_nodes;
-            }
-
-            else if ((n_nodes[1].getItem().size() >= minEntries) &&
-                     (n_nodes[0].getItem().size() + cc.size() == minEntries)) {
-                // Case 2: Dump everything into the left node to meet min
-                n_nodes[0].addEntries(cc);
-                cc.clear();
-                return n_nodes;
-            }
+        if ( sibling.getParent() != null ) sibling.getParent().addChild(sibling);
+        return sibling;
+    }
 
-            // Case 3: Indeterminate, insert one by one
-            T c = cc.pop();         // The entry to add
+    /**
+     * Splits a leaf or a node using the split strategy, returning 2 nodes, left and right
+     * ! The actual node itself is recycled as left node
+     * @param n The node to split
+     */
+    private RTreeNode<T>[] splitNode(RTreeNode<T> n) {
+        RTreeNode<T>[] n_nodes = new RTreeNode[] {n, buildSibling(n)};
 
+        if (n.isLeaf()) {
+            List<T> items = new ArrayList<>(n.getItem());
+            n.getItem().clear();
 
-            // Factor 1: Select node with smaller expansion //
-            // Get expansion of area to insert c
-            double e0 = n_nodes[0].getAreaExpansion(c);
-            double e1 = n_nodes[1].getAreaExpansion(c);
-            // If factor differentiates, insert and move on
-            if (e0 != e1) {
-                n_nodes[e0 < e1 ? 0 : 1].addEntry(c);
-                continue;
-            }
+            // Entries are points, so both corners are the same
+            double[][] points = new double[items.size()][numDims];
+            for (int i = 0; i < items.size(); ++i)
+                for (int dim = 0; dim < numDims; ++dim) points[i][dim] = items.get(i).getParamValue(dim);
 
+            int[] groups = splitStrategy.split(points, points, minEntries);
+            for (int i = 0; i < items.size(); ++i) addEntry(n_nodes[groups[i]], items.get(i));
+        }
 
-            // Factor 2: Select smaller node //
-            double a0 = getArea(n_nodes[0]); // Calculates the Initial Area
-            double a1 = getArea(n_nodes[1]); // Calculates the Initial Area
-            // If factor differentiates, insert and move on
-            if (a0 != a1) {
-                n_nodes[a0 < a1 ? 0 : 1].addEntry(c);
-                continue;
+        else {
+            List<RTreeNode<T>> children = new ArrayList<>();
+            for (int i = 0; i < n.childSlots(); ++i) if (n.neighbours[i] != null) {
+                children.add((RTreeNode<T>) n.neighbours[i]);
+                n.removeChild(i);
             }
 
+            double[][] lo = new double[children.size()][numDims], hi = new double[children.size()][numDims];
+            for (int i = 0; i < children.size(); ++i)
+                for (int dim = 0; dim < numDims; ++dim) {
+                    lo[i][dim] = children.get(i).ranges[dim].getMin();
+                    hi[i][dim] = children.get(i).ranges[dim].getMax();
+                }
 
-            // Factor 3: Decide on number of entries //
-            if (n_nodes[0].getItem().size() < n_nodes[1].getItem().size())
-                n_nodes[0].addEntry(c);
-            else n_nodes[1].addEntry(c);
+            int[] groups = splitStrategy.split(lo, hi, minChildren);
+            for (int i = 0; i < children.size(); ++i) {
+                n_nodes[groups[i]].addChild(children.get(i));
+                children.get(i).setParent(n_nodes[groups[i]]);
+            }
         }
 
         // Restrict their ranges
         n_nodes[0].tighten();
         n_nodes[1].tighten();
 
-        // And returns the new nodes
         return n_nodes;
     }
 
-    /**
-     * Selects the 2 entries acting as the splitting pair
-     * One goes in left and the other goes in right
-     * Everything else will is only better in one than the other
-     *
-     * The picked entries are ejected from the list passed in
-     *
-     * @param entries - The list of entries to split
-     */
-    private ArrayList<T> pickLeafSeeds(LinkedList<T> entries) {
-        // Collect the Param stuff
-        Double[][] elements = Arrays.copyOf(entries.stream().map(RTreeEntry::getParamValues).toArray(), entries.size(), Double[][].class);
-
-        // keeps track of the best separation between the center 2 nodes
-        double bestSep = 0.0f;
-
-        // The best pair of entries to split by
-        ArrayList<T> bestPair = new ArrayList<>(2);
-        bestPair.add(null); bestPair.add(null); // this is so inelegant but java doesn't like generic arrays
-
-        for ( int dim = 0; dim < numDims; dim++ ) { // For each dimension
-
-            // Many variables to keep track of range of min and max in the dimension
-            double dimLb = Double.MAX_VALUE, dimMinUb = Double.MAX_VALUE;
-            double dimUb = -1.0f * Double.MAX_VALUE, dimMaxLb = -1.0f * Double.MAX_VALUE;
-
-            // Keeps track of entries with largest Min and smallest Max
-            T nMaxLb = null, nMinUb = null;
-
-            // For each entry
-            for (int i = 0; i < elements.length; ++i) {
-                // Get the parameters from precomp
-                Double[] params = elements[i];
-
-                // Comparing and updating the min max, etc.
-                if ( params[dim] < dimLb ) dimLb = params[dim]; // The minimum
-                if ( params[dim] > dimUb ) dimUb = params[dim]; // The maximum
-
-                // The Largest lower bound
-                if ( params[dim] > dimMaxLb ) {
-                    dimMaxLb = params[dim];
-                    nMaxLb = entries.get(i);
-                }
-
-                // The lowest upper bound
-                if ( params[dim] < dimMinUb ) {
-                    dimMinUb = params[dim];
-                    nMinUb = entries.get(i);
-                }
-            }
-
-            // Calculate the pairs separation value
-            double sep = Math.abs((dimMinUb - dimMaxLb) / (dimUb - dimLb));
-
-            // Check if this splits the array "more"
-            if ( sep >= bestSep ) {
-                // Maximises the split and replaces the smaller one
-                bestPair.set(0, nMaxLb);
-                bestPair.set(1, nMinUb);
-                bestSep = sep;
-            }
-        }
-
-        // Removes from list and returns the picked Seeds
-        entries.remove(bestPair.get(0));
-        entries.remove(bestPair.get(1));
-        return bestPair;
+    public void clear() {
+        ++modCount;
+        root = buildRoot(true); // Garbage Collector will clear the rest
+        leafOf.clear();
     }
 
-    public void clear() { root = buildRoot(true); } // Garbage Collector will clear the rest
-
 }
\ No newline at end of file
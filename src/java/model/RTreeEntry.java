@@ -2,4 +2,38 @@ package model;
 
 public interface RTreeEntry {
     Double[] getParamValues();
+
+    /**
+     * Primitive access to a single coordinate, used on the hot paths of the tree
+     * Override this if the coordinates are not stored as a Double[] already
+     * @param dim - The dimension to read
+     */
+    default double getParamValue(int dim) {
+        return getParamValues()[dim];
+    }
+
+    /**
+     * Moves the entry along one dimension, used by RTree.update while the tree holds it
+     * Override this together with getParamValue, or if getParamValues returns a copy
+     * @param dim - The dimension to change
+     * @param value - The new coordinate
+     */
+    default void setParamValue(int dim, double value) {
+        getParamValues()[dim] = value;
+    }
+
+    /**
+     * Number of coordinates, override together with getParamValue
+     */
+    default int getNumParams() {
+        return getParamValues().length;
+    }
+
+    /**
+     * The value summed up by aggregate queries, like kWh offered or price
+     * Entries without one count as 0
+     */
+    default double getMeasure() {
+        return 0.0;
+    }
 }
@@ -3,15 +3,34 @@ package model;
 import AVLs.ElementNotFoundException;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class RTreeNode<T extends RTreeEntry> extends model.Node<List<T>>{
     // data members
     public Range<Double>[] ranges;
 
     private long numEntries;
+
+    // Aggregates of the entry measures in the subtree, kept by tighten
+    private double measureSum;
+    private double measureMin = Double.POSITIVE_INFINITY;
+    private double measureMax = Double.NEGATIVE_INFINITY;
     private long numChildren;
     private boolean leaf;
+
+    // Path ids pack the level above the child slot taken into each level, from the root down
+    // The slot into level k sits at bits k * slotBits, so growing the root (old root in slot 0) changes no id
+    private static final int LEVEL_SHIFT = 58;
+    private static final long PATH_MASK = (1L << LEVEL_SHIFT) - 1;
+
+    // For trees too tall to pack, only degenerate binary ones in practice
+    public static final long NO_PATH = -1;
+
+    // Kept up to date by addChild and setParent, so reading them is free
+    private long pathId;
+    private int height; // Levels below, 0 being a leaf
+    private int slot; // In the parent
+    private int slotBits; // Bits a level, from the fanout of the tree above
+
     public boolean isLeaf() {return leaf;}
     public void setLeaf(boolean l) {leaf = l;}
 
@@ -21,28 +40,119 @@ public class RTreeNode<T extends RTreeEntry> extends model.Node<List<T>>{
     }
 
     public RTreeNode(List<T> item, Range<Double>[] ranges, boolean leaf, RTreeNode<T> parent) {
+        this(item, ranges, leaf, parent, 2);
+    }
+
+    /**
+     * @param maxChildren - The fanout, there is one more child slot for overflow and the parent goes last
+     */
+    public RTreeNode(List<T> item, Range<Double>[] ranges, boolean leaf, RTreeNode<T> parent, int maxChildren) {
         super(item);
-        neighbours = new RTreeNode[4];
-        neighbours[3] = parent;
+        neighbours = new RTreeNode[maxChildren + 2];
+        neighbours[maxChildren + 1] = parent;
         this.leaf = leaf;
         this.ranges = ranges;
     }
 
+    /**
+     * Number of slots for children in neighbours, including the overflow slot
+     */
+    public int childSlots() {
+        return neighbours.length - 1;
+    }
+
+    public RTreeNode<T> getParent() {
+        return (RTreeNode<T>) neighbours[neighbours.length - 1];
+    }
+
+    public void setParent(RTreeNode<T> parent) {
+        neighbours[neighbours.length - 1] = parent;
+        if (parent == null) relabel(null, 0); // New root
+    }
+
     public Range<Double>[] getRanges() {
         return ranges;
     }
 
+    /**
+     * ! Only tells the first 2 children apart, so this is for binary fanout, see getPathId
+     */
     public boolean[] getId() {
-        // O(log N) that directly generates id dynamically
-        if (neighbours[3] == null)
-            return new boolean[0];
+        RTreeNode<T> root = this;
+        while (root.getParent() != null) root = root.getParent();
+
+        boolean[] id = new boolean[root.height - height];
+        for (int i = 0; i < id.length; ++i) id[i] = getSlot(root.height - 1 - i) == 1;
+        return id;
+    }
+
+    /**
+     * The level and the child slot taken into every level from the root down, packed into one long
+     * Unique within the tree, see RTree.nodeOf
+     * @return the id, or NO_PATH if the tree is too tall for one
+     */
+    public long getPathId() {
+        return pathId;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * The child slot taken into the level on the way down from the root, 0 being the leaves
+     * @param level - At most the height of this node
+     */
+    public int getSlot(int level) {
+        if (pathId != NO_PATH) return slotOf(pathId, level, slotBits);
+
+        // Too tall to be packed, walk up to that level instead
+        RTreeNode<T> n = this;
+        while (n.height < level) n = n.getParent();
+        return n.slot;
+    }
+
+    public static int levelOf(long pathId) {
+        return (int) (pathId >>> LEVEL_SHIFT);
+    }
+
+    public static int slotOf(long pathId, int level, int slotBits) {
+        return (int) (pathId >>> level * slotBits) & ((1 << slotBits) - 1);
+    }
+
+    /**
+     * Bits needed a level for nodes with this many child slots
+     */
+    public static int slotBits(int childSlots) {
+        return 32 - Integer.numberOfLeadingZeros(childSlots - 1);
+    }
+
+    /**
+     * Gives this node and its subtree their path ids, after moving to the slot of parent
+     * Stops at nodes whose id stays the same, their subtrees cannot have changed either
+     * @param parent - The new parent, null for the root
+     */
+    private void relabel(RTreeNode<T> parent, int slot) {
+        long id;
+        int bits;
+        if (parent == null) {
+            bits = slotBits(childSlots());
+            id = height * bits > LEVEL_SHIFT ? NO_PATH : (long) height << LEVEL_SHIFT;
+        }
         else {
-            boolean[] parentId = ((RTreeNode) neighbours[3]).getId();
-            boolean[] id = Arrays.copyOf(parentId, parentId.length + 1);
-            if (neighbours[3].neighbours[1] == this)
-                id[parentId.length] = true;
-            return id;
+            bits = slotBits(parent.childSlots());
+            int level = parent.height - 1;
+            if (parent.pathId == NO_PATH) id = NO_PATH;
+            else id = (long) level << LEVEL_SHIFT | parent.pathId & PATH_MASK | (long) slot << level * bits;
         }
+
+        if (id == pathId && slot == this.slot && bits == slotBits) return;
+        pathId = id;
+        slotBits = bits;
+        this.slot = slot;
+
+        for (int i = 0; i < childSlots(); ++i)
+            if (neighbours[i] != null) ((RTreeNode<T>) neighbours[i]).relabel(this, i);
     }
 
     public void addEntry(T entry) {
@@ -71,6 +181,20 @@ public class RTreeNode<T extends RTreeEntry> extends model.Node<List<T>>{
         return true;
     }
 
+    /**
+     * Checks if r2 lies completely inside r1
+     * @param r1 - The outer ranges
+     * @param r2 - The inner ranges
+     */
+    static public boolean isContained(Range<Double>[] r1, Range<Double>[] r2) {
+        for (int i = 0; i < r1.length; i++) {
+            if (r2[i].getMin() < r1[i].getMin() || r1[i].getMax() < r2[i].getMax())
+                return false;
+        }
+
+        return true;
+    }
+
     /**
      * Checks if point is in the range
      * @param r1 - The ranges to consider
@@ -87,6 +211,21 @@ public class RTreeNode<T extends RTreeEntry> extends model.Node<List<T>>{
         return true;
     }
 
+    /**
+     * Checks if the entry is in the range, reading its coordinates without boxing
+     * @param r1 - The ranges to consider
+     * @param e - The entry to check
+     */
+    static public boolean isInRange(Range<Double>[] r1, RTreeEntry e) {
+        for (int i = 0; i < r1.length; i++) {
+            double coord = e.getParamValue(i);
+            if (coord < r1[i].getMin() || r1[i].getMax() < coord)
+                return false;
+        }
+
+        return true;
+    }
+
     /**
      * Calculates the area of the given node
      */
@@ -96,15 +235,38 @@ public class RTreeNode<T extends RTreeEntry> extends model.Node<List<T>>{
         return area;
     }
 
+    /**
+     * Number of entries in the subtree, as of the last tighten
+     */
+    public long getNumEntries() {
+        return numEntries;
+    }
+
+    public double getMeasureSum() {
+        return measureSum;
+    }
+
+    public double getMeasureMin() {
+        return measureMin;
+    }
+
+    public double getMeasureMax() {
+        return measureMax;
+    }
+
     public long getNumChildren() {
         return numChildren;
     }
 
     public void addChild(RTreeNode<T> node) {
-        for (int i = 0; i < 3; ++i) {
+        for (int i = 0; i < childSlots(); ++i) {
             if (neighbours[i] == null) {
                 neighbours[i] = node;
-                ++numChildren;
+                if (numChildren++ == 0) {
+                    height = node.height + 1;
+                    if (getParent() == null) relabel(null, 0); // Probably a new root, which takes the first child along
+                }
+                node.relabel(this, i);
                 return;
             }
         }
@@ -119,7 +281,7 @@ public class RTreeNode<T extends RTreeEntry> extends model.Node<List<T>>{
     }
 
     public void removeChild(RTreeNode node) {
-        for (int i = 0; i < 3; ++i) {
+        for (int i = 0; i < childSlots(); ++i) {
             if (neighbours[i] == node) {
                 neighbours[i] = null;
                 --numChildren;
@@ -131,52 +293,64 @@ public class RTreeNode<T extends RTreeEntry> extends model.Node<List<T>>{
 
     /**
      * Recomputes the dependent values
+     * @return true if the domain changed
      */
-    public void tighten() {
-        // Copies the old ranges
-        Range<Double>[] n_ranges = Arrays.copyOf(ranges, ranges.length);
-
-        if (this.leaf) {
-            // Get all parameter values of entries stored
-            List<Double[]> elements = item.stream().map(RTreeEntry::getParamValues).collect(Collectors.toList());
-
-            for (int i = 0; i < ranges.length; i++) { // For each dimension
-                n_ranges[i].setMin(Double.MAX_VALUE);
-                n_ranges[i].setMax(-Double.MAX_VALUE);
-
-                for (Double[] params : elements) { // For each parameter
-                    // Replace smallest with the smallest possible
-                    n_ranges[i].setMin(Math.min(n_ranges[i].getMin(), params[i]));
-
-                    // Replace largest with the largest possible
-                    n_ranges[i].setMax(Math.max(n_ranges[i].getMax(), params[i]));
+    public boolean tighten() {
+        boolean changed = false;
+        for (int dim = 0; dim < ranges.length; dim++) { // For each dimension
+            double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+
+            if (this.leaf) {
+                // For each entry stored, read the coordinate directly
+                for (T e : item) {
+                    double coord = e.getParamValue(dim);
+                    if (coord < min) min = coord;
+                    if (coord > max) max = coord;
                 }
             }
-        }
-
-        else {
-            for (int dim = 0; dim < ranges.length; dim++) { // For each dimension
-
-                n_ranges[dim].setMin(Double.MAX_VALUE);
-                n_ranges[dim].setMax(-Double.MAX_VALUE);
 
-                // For each child
-                for (int i = 0; i < 3; ++i) if (neighbours[i] != null) {
-                    // Compare with running max and min
-                    n_ranges[dim].setMin(Math.min(n_ranges[dim].getMin(), ((RTreeNode<T>) neighbours[i]).ranges[dim].getMin()));
-                    n_ranges[dim].setMax(Math.max(n_ranges[dim].getMax(), ((RTreeNode<T>) neighbours[i]).ranges[dim].getMax()));
+            else {
+                // For each child, compare with running max and min
+                for (int i = 0; i < childSlots(); ++i) if (neighbours[i] != null) {
+                    Range<Double> range = ((RTreeNode<T>) neighbours[i]).ranges[dim];
+                    min = Math.min(min, range.getMin());
+                    max = Math.max(max, range.getMax());
                 }
             }
-        }
 
-        // Updates the ranges, making it a tighter domain
-        this.ranges = n_ranges;
+            // Only box when the domain actually changed
+            if (ranges[dim].getMin() != min) {
+                ranges[dim].setMin(min);
+                changed = true;
+            }
+            if (ranges[dim].getMax() != max) {
+                ranges[dim].setMax(max);
+                changed = true;
+            }
+        }
 
-        // Recompute the number of entries in subtree
+        // Recompute the number of entries and the measures in subtree
         numEntries = item.size();
-        for (int i = 0; i < 2; ++i) if (neighbours[i] != null)
-            numEntries += ((RTreeNode<T>) neighbours[i]).numEntries;
+        measureSum = 0.0;
+        measureMin = Double.POSITIVE_INFINITY;
+        measureMax = Double.NEGATIVE_INFINITY;
+
+        for (T e : item) {
+            double measure = e.getMeasure();
+            measureSum += measure;
+            measureMin = Math.min(measureMin, measure);
+            measureMax = Math.max(measureMax, measure);
+        }
+
+        for (int i = 0; i < childSlots(); ++i) if (neighbours[i] != null) {
+            RTreeNode<T> child = (RTreeNode<T>) neighbours[i];
+            numEntries += child.numEntries;
+            measureSum += child.measureSum;
+            measureMin = Math.min(measureMin, child.measureMin);
+            measureMax = Math.max(measureMax, child.measureMax);
+        }
 
+        return changed;
     }
 
     /**
@@ -184,22 +358,14 @@ public class RTreeNode<T extends RTreeEntry> extends model.Node<List<T>>{
      * @param e - The element that may be inserted
      */
     double getAreaExpansion(T e) {
-        double expanded = 1.0f;           // New area
-
-        Double[] e_vals = e.getParamValues(); // Get the parametrized values
-
-        if (e_vals.length != ranges.length) throw new IllegalArgumentException("e的参数数不对");
+        double expanded = 1.0;           // New area
 
-        double[] deltas = new double[this.getRanges().length];
+        for ( int i = 0; i < ranges.length; i++ ) {
+            double coord = e.getParamValue(i); // Get the parametrized value
+            double min = this.ranges[i].getMin(), max = this.ranges[i].getMax();
 
-        for ( int i = 0; i < e_vals.length; i++ ) {
-            // Expand end point
-            if (this.ranges[i].getMax() < e_vals[i])
-                expanded *= e_vals[i] - this.getRanges()[i].getMin();
-
-            // Expand start point
-            if (this.ranges[i].getMin() > e_vals[i])
-                expanded *= this.ranges[i].getMax() - e_vals[i];
+            // Expand whichever end point the element falls outside of
+            expanded *= Math.max(max, coord) - Math.min(min, coord);
         }
 
         // Calculate Difference and return that
@@ -0,0 +1,74 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * The two sides of a split under construction, shared by LinearSplit and QuadraticSplit
+ */
+class SplitGroups {
+    final double[][] lo, hi;
+    final int[] side;
+    final int[] sizes = {1, 1};
+    final double[][] boxLo, boxHi;
+    int remaining;
+
+    SplitGroups(double[][] lo, double[][] hi, int seed0, int seed1) {
+        this.lo = lo;
+        this.hi = hi;
+        side = new int[lo.length];
+        Arrays.fill(side, -1);
+        side[seed0] = 0;
+        side[seed1] = 1;
+        boxLo = new double[][] {lo[seed0].clone(), lo[seed1].clone()};
+        boxHi = new double[][] {hi[seed0].clone(), hi[seed1].clone()};
+        remaining = lo.length - 2;
+    }
+
+    /**
+     * Puts all the remaining items into a side if it needs them to meet min
+     * @return true if that happened
+     */
+    boolean fillUp(int min) {
+        for (int g = 0; g < 2; ++g) if (sizes[g] + remaining <= min) {
+            for (int i = 0; i < side.length; ++i) if (side[i] == -1) add(i, g);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The side needing less area expansion, then the smaller side, then the side with fewer items
+     */
+    int preferred(int i) {
+        double e0 = expansion(0, i), e1 = expansion(1, i);
+        if (e0 != e1) return e0 < e1 ? 0 : 1;
+
+        double a0 = area(0), a1 = area(1);
+        if (a0 != a1) return a0 < a1 ? 0 : 1;
+
+        return sizes[0] <= sizes[1] ? 0 : 1;
+    }
+
+    void add(int i, int g) {
+        side[i] = g;
+        ++sizes[g];
+        --remaining;
+        for (int dim = 0; dim < boxLo[g].length; ++dim) {
+            boxLo[g][dim] = Math.min(boxLo[g][dim], lo[i][dim]);
+            boxHi[g][dim] = Math.max(boxHi[g][dim], hi[i][dim]);
+        }
+    }
+
+    double expansion(int g, int i) {
+        double expanded = 1.0;
+        for (int dim = 0; dim < boxLo[g].length; ++dim)
+            expanded *= Math.max(boxHi[g][dim], hi[i][dim]) - Math.min(boxLo[g][dim], lo[i][dim]);
+        return expanded - area(g);
+    }
+
+    double area(int g) {
+        double area = 1.0;
+        for (int dim = 0; dim < boxLo[g].length; ++dim) area *= boxHi[g][dim] - boxLo[g][dim];
+        return area;
+    }
+}
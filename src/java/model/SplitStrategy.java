@@ -0,0 +1,17 @@
+package model;
+
+/**
+ * Decides how the items of an overflowing node are shared between the node and its new sibling
+ *
+ * Items are boxes given by their corners, entries are points so both corners are the same array.
+ * Cheaper strategies build trees faster but with more overlap, making searches slower.
+ */
+public interface SplitStrategy {
+    /**
+     * @param lo - The lower corner of each item, lo[item][dim]
+     * @param hi - The upper corner of each item, hi[item][dim]
+     * @param min - The minimum number of items on either side
+     * @return 0 or 1 for each item, the side it goes to
+     */
+    int[] split(double[][] lo, double[][] hi, int min);
+}
@@ -0,0 +1,114 @@
+import model.ArenaRTree;
+import model.RTreeNode;
+import model.Range;
+import org.junit.jupiter.api.Test;
+
+import static java.lang.Math.signum;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+
+public class ArenaRTreeTests {
+
+    /**
+     * Bad Deletion Test, same as the one for RTree
+     */
+    @Test
+    void badDeletion() {
+        ArenaRTree<Entry> tree = new ArenaRTree<>(2, 1, 2);
+
+        List<Entry> entries = new ArrayList<>(Arrays.stream(new Entry[]{
+                new Entry(4.0, 3.0),
+                new Entry(2.0, 1.0),
+                new Entry(3.0, 4.0),
+                new Entry(4.0, 1.0),
+                new Entry(1.0, 5.0),
+                new Entry(2.0, 6.0),
+        }).toList());
+
+        for (Entry e: entries) tree.insert(e);
+
+        tree.delete(entries.get(4));
+        assertEquals(5, tree.search(new Range[]{new Range<>(0.0, 10.0), new Range<>(0.0, 10.1)}).size(), "答案不对，你死定了");
+        assertEquals(5, tree.size());
+
+        // Ensures Bad deletion is met with exception
+        assertThrows(Exception.class, () -> tree.delete(new Entry(0.0, 0.0)));
+    }
+
+    /**
+     * Compares against a brute force filter, with a bunch of different fanouts
+     */
+    @Test
+    void stressTest() {
+        int T = 200; // Number of Trials
+        int N = 1000; // Number of random entries
+        double P_d = 0.5; // Probability of deletion
+
+        for (int t = 0; t < T; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            int fanout = (int) (Math.random() * 15) + 2;
+            ArenaRTree<Entry> tree = new ArenaRTree<>(max, max / 2, fanout, 2);
+
+            ArrayList<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < N; ++i) {
+                Entry e = new Entry(Math.random(), Math.random());
+                entries.add(e);
+                tree.insert(e);
+
+                // Random chance for deletion
+                if (Math.random() < P_d) {
+                    int to_delete = (int) (Math.random() * entries.size());
+                    assertTrue(tree.delete(entries.remove(to_delete)));
+                }
+            }
+            assertEquals(entries.size(), tree.size());
+
+            Double[] inputs = new Double[]{Math.random(), Math.random(), Math.random(), Math.random()};
+            Arrays.sort(inputs);
+            Range[] query = new Range[]{
+                    new Range(inputs[0], inputs[2]),
+                    new Range(inputs[1], inputs[3])
+            };
+
+            List<Entry> result = tree.search(query);
+            entries.removeIf(e -> !RTreeNode.isInRange(query, e.getParamValues()));
+
+            result.sort((a, b) -> (int) signum(!Objects.equals(a.coords[0], b.coords[0]) ? a.coords[0] - b.coords[0] : a.coords[1] - b.coords[1]));
+            entries.sort((a, b) -> (int) signum(!Objects.equals(a.coords[0], b.coords[0]) ? a.coords[0] - b.coords[0] : a.coords[1] - b.coords[1]));
+
+            assertArrayEquals(entries.toArray(), result.toArray(), "答案不对，你死定了");
+        }
+    }
+
+    /**
+     * Searches from many threads at once give the same answers as one at a time
+     */
+    @Test
+    void concurrentSearchTest() throws Exception {
+        ArenaRTree<Entry> tree = new ArenaRTree<>(8, 4, 4, 2);
+        for (int i = 0; i < 20000; ++i) tree.insert(new Entry(Math.random(), Math.random()));
+
+        List<Range[]> queries = new ArrayList<>();
+        List<Integer> expected = new ArrayList<>();
+        for (int q = 0; q < 500; ++q) {
+            double x = Math.random() * 0.7, y = Math.random() * 0.7;
+            Range[] query = new Range[]{new Range(x, x + 0.3), new Range(y, y + 0.3)};
+            queries.add(query);
+            expected.add(tree.search(query).size());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) tasks.add(pool.submit(() -> {
+            for (int round = 0; round < 4; ++round)
+                for (int q = 0; q < queries.size(); ++q)
+                    assertEquals((int) expected.get(q), tree.search(queries.get(q)).size(), "数错了");
+            return null;
+        }));
+        for (Future<?> task : tasks) task.get(); // Rethrows whatever failed
+        pool.shutdown();
+    }
+}
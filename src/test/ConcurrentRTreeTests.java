@@ -0,0 +1,118 @@
+import model.ConcurrentRTree;
+import model.RTree;
+import model.RTreeNode;
+import model.Range;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class ConcurrentRTreeTests {
+
+    record Query(Range[] ranges, long start, long end, List<Entry> result, long count) {}
+
+    /**
+     * Readers running next to a writer always see every entry that never leaves the tree,
+     * and never see anything outside their range.
+     * Afterwards every search and count is checked against the entries that were surely in, or surely out,
+     * for the whole query, timed like in RLinkTreeTests
+     */
+    @Test
+    void readersAndWriter() throws Exception {
+        ConcurrentRTree<Entry> tree = new ConcurrentRTree<>(new RTree<>(8, 4, 8, 2));
+        AtomicLong clock = new AtomicLong();
+
+        // These stay for the whole test
+        List<Entry> stable = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) stable.add(new Entry(Math.random(), Math.random()));
+        tree.bulkLoad(stable);
+
+        int readers = 3, ops = 20000;
+        List<RLinkTreeTests.History> churned = new ArrayList<>();
+        List<Query>[] queries = new List[readers];
+
+        ExecutorService pool = Executors.newFixedThreadPool(readers + 1);
+        CountDownLatch writing = new CountDownLatch(1);
+        List<Future<?>> tasks = new ArrayList<>();
+
+        // Writer, churning entries in and out
+        tasks.add(pool.submit(() -> {
+            try {
+                Random random = new Random();
+                List<RLinkTreeTests.History> alive = new ArrayList<>();
+                for (int i = 0; i < ops; ++i) {
+                    if (alive.size() < 2000 || random.nextBoolean()) {
+                        RLinkTreeTests.History h = new RLinkTreeTests.History(new Entry(random.nextDouble(), random.nextDouble()));
+                        churned.add(h);
+                        h.insertStart = clock.incrementAndGet();
+                        tree.insert(h.entry);
+                        h.insertEnd = clock.incrementAndGet();
+                        alive.add(h);
+                    }
+                    else {
+                        RLinkTreeTests.History h = alive.remove(random.nextInt(alive.size()));
+                        h.deleteStart = clock.incrementAndGet();
+                        assertTrue(tree.delete(h.entry), "找不到树叶");
+                        h.deleteEnd = clock.incrementAndGet();
+                    }
+                }
+            } finally {
+                writing.countDown(); // Readers stop even if this failed
+            }
+            return null;
+        }));
+
+        // Readers
+        for (int r = 0; r < readers; ++r) {
+            List<Query> mine = queries[r] = new ArrayList<>();
+            tasks.add(pool.submit(() -> {
+                Random random = new Random();
+                while (writing.getCount() > 0) {
+                    double x = random.nextDouble() * 0.8, y = random.nextDouble() * 0.8;
+                    Range[] query = new Range[]{new Range(x, x + 0.2), new Range(y, y + 0.2)};
+
+                    long start = clock.incrementAndGet();
+                    List<Entry> result = tree.search(query);
+                    long count = tree.count(query);
+                    mine.add(new Query(query, start, clock.incrementAndGet(), result, count));
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> task : tasks) task.get(); // Rethrows whatever failed
+        pool.shutdown();
+
+        int checked = 0;
+        for (List<Query> mine : queries) for (Query q : mine) {
+            Set<Entry> result = Collections.newSetFromMap(new IdentityHashMap<>());
+            result.addAll(q.result);
+            for (Entry e : result) assertTrue(RTreeNode.isInRange(q.ranges, e.getParamValues()), "答案不对，你死定了");
+
+            // Surely in for the whole query, and maybe in at some point during it
+            long surely = 0, maybe = 0;
+            for (Entry e : stable) if (RTreeNode.isInRange(q.ranges, e.getParamValues())) {
+                assertTrue(result.contains(e), "少了一个");
+                ++surely;
+                ++maybe;
+            }
+            for (RLinkTreeTests.History h : churned) {
+                if (!RTreeNode.isInRange(q.ranges, h.entry.getParamValues())) continue;
+                if (h.insertEnd < q.start && h.deleteStart > q.end) {
+                    assertTrue(result.contains(h.entry), "少了一个");
+                    ++surely;
+                }
+                if (h.insertStart > q.end || h.deleteEnd < q.start) assertFalse(result.contains(h.entry), "多了一个");
+                else ++maybe;
+            }
+
+            assertTrue(surely <= q.count && q.count <= maybe, "数错了");
+            ++checked;
+        }
+        assertTrue(checked > 0);
+    }
+}
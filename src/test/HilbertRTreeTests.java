@@ -0,0 +1,127 @@
+import model.HilbertRTree;
+import model.RTreeNode;
+import model.Range;
+import org.junit.jupiter.api.Test;
+
+import static java.lang.Math.signum;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+
+public class HilbertRTreeTests {
+    private static final Range<Double>[] UNIT = new Range[]{new Range<>(0.0, 1.0), new Range<>(0.0, 1.0)};
+
+    /**
+     * Bad Deletion Test, same as the one for RTree
+     */
+    @Test
+    void badDeletion() {
+        HilbertRTree<Entry> tree = new HilbertRTree<>(2, 2, new Range[]{new Range<>(0.0, 10.0), new Range<>(0.0, 10.0)});
+
+        List<Entry> entries = new ArrayList<>(Arrays.stream(new Entry[]{
+                new Entry(4.0, 3.0),
+                new Entry(2.0, 1.0),
+                new Entry(3.0, 4.0),
+                new Entry(4.0, 1.0),
+                new Entry(1.0, 5.0),
+                new Entry(2.0, 6.0),
+        }).toList());
+
+        for (Entry e: entries) tree.insert(e);
+
+        tree.delete(entries.get(4));
+        assertEquals(5, tree.search(new Range[]{new Range<>(0.0, 10.0), new Range<>(0.0, 10.1)}).size(), "答案不对，你死定了");
+        assertEquals(5, tree.size());
+
+        // Ensures Bad deletion is met with exception
+        assertThrows(Exception.class, () -> tree.delete(new Entry(0.0, 0.0)));
+    }
+
+    /**
+     * Neighbouring cells of a small grid should be neighbours on the curve too
+     */
+    @Test
+    void curveIsContinuous() {
+        HilbertRTree<Entry> tree = new HilbertRTree<>(4, 4, UNIT);
+        int side = 16;
+
+        // Sort the cells by key, consecutive ones must touch
+        List<Entry> cells = new ArrayList<>();
+        for (int x = 0; x < side; ++x)
+            for (int y = 0; y < side; ++y) cells.add(new Entry((x + 0.5) / side, (y + 0.5) / side));
+        cells.sort(Comparator.comparingLong(tree::hilbertKey));
+
+        for (int i = 1; i < cells.size(); ++i) {
+            double dx = Math.abs(cells.get(i).coords[0] - cells.get(i - 1).coords[0]);
+            double dy = Math.abs(cells.get(i).coords[1] - cells.get(i - 1).coords[1]);
+            assertEquals(1.0 / side, dx + dy, 1e-9, "曲线断了");
+        }
+    }
+
+    /**
+     * Compares against a brute force filter, with inserts, deletes and bulk loads mixed in
+     */
+    @Test
+    void stressTest() {
+        int T = 200; // Number of Trials
+        int N = 1000; // Number of random entries
+        double P_d = 0.5; // Probability of deletion
+
+        for (int t = 0; t < T; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            int fanout = (int) (Math.random() * 15) + 2;
+            HilbertRTree<Entry> tree = new HilbertRTree<>(max, fanout, UNIT);
+
+            ArrayList<Entry> entries = new ArrayList<>();
+            if (t % 2 == 0) {
+                for (int i = 0; i < N / 2; ++i) entries.add(new Entry(Math.random(), Math.random()));
+                tree.bulkLoad(entries);
+            }
+
+            for (int i = 0; i < N; ++i) {
+                Entry e = new Entry(Math.random(), Math.random());
+                entries.add(e);
+                tree.insert(e);
+
+                // Random chance for deletion
+                if (Math.random() < P_d) {
+                    int to_delete = (int) (Math.random() * entries.size());
+                    assertTrue(tree.delete(entries.remove(to_delete)));
+                }
+            }
+            assertEquals(entries.size(), tree.size());
+
+            Double[] inputs = new Double[]{Math.random(), Math.random(), Math.random(), Math.random()};
+            Arrays.sort(inputs);
+            Range[] query = new Range[]{
+                    new Range(inputs[0], inputs[2]),
+                    new Range(inputs[1], inputs[3])
+            };
+
+            List<Entry> result = tree.search(query);
+            entries.removeIf(e -> !RTreeNode.isInRange(query, e.getParamValues()));
+
+            result.sort((a, b) -> (int) signum(!Objects.equals(a.coords[0], b.coords[0]) ? a.coords[0] - b.coords[0] : a.coords[1] - b.coords[1]));
+            entries.sort((a, b) -> (int) signum(!Objects.equals(a.coords[0], b.coords[0]) ? a.coords[0] - b.coords[0] : a.coords[1] - b.coords[1]));
+
+            assertArrayEquals(entries.toArray(), result.toArray(), "答案不对，你死定了");
+        }
+    }
+
+    /**
+     * Deferred splitting should keep the leaves well filled even with random inserts
+     */
+    @Test
+    void utilisationTest() {
+        HilbertRTree<Entry> tree = new HilbertRTree<>(16, 16, UNIT);
+        for (int i = 0; i < 50000; ++i) tree.insert(new Entry(Math.random(), Math.random()));
+        assertTrue(tree.leafUtilisation() > 0.66, "树叶太空了: " + tree.leafUtilisation());
+
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 50000; ++i) entries.add(new Entry(Math.random(), Math.random()));
+        HilbertRTree<Entry> packed = new HilbertRTree<>(16, 16, UNIT);
+        packed.bulkLoad(entries);
+        assertTrue(packed.leafUtilisation() > 0.99, "树叶太空了: " + packed.leafUtilisation());
+    }
+}
@@ -0,0 +1,144 @@
+import model.EntryCodec;
+import model.PagedRTree;
+import model.Range;
+import model.RTreeNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+
+public class PagedRTreeTests {
+
+    private static void checkSearches(PagedRTree<Entry> tree, List<Entry> expected, Random random) {
+        for (int q = 0; q < 50; ++q) {
+            double x = random.nextDouble() * 0.7, y = random.nextDouble() * 0.7;
+            Range[] ranges = new Range[]{new Range(x, x + 0.3), new Range(y, y + 0.3)};
+
+            List<Entry> want = new ArrayList<>();
+            for (Entry e : expected) if (RTreeNode.isInRange(ranges, e.getParamValues())) want.add(e);
+
+            List<Entry> got = tree.search(ranges);
+            assertEquals(want.size(), got.size(), "数错了");
+            assertTrue(got.containsAll(want), "答案不对，你死定了");
+        }
+    }
+
+    /**
+     * A pool much smaller than the tree, so pages are evicted and read back all the time
+     */
+    @Test
+    void smallPoolTest(@TempDir Path dir) throws Exception {
+        Random random = new Random(24);
+        List<Entry> entries = new ArrayList<>();
+
+        try (PagedRTree<Entry> tree = new PagedRTree<>(dir.resolve("tree"), 256, 8, 2, new EntryCodec2D())) {
+            for (int i = 0; i < 5000; ++i) {
+                Entry e = new Entry(random.nextDouble(), random.nextDouble());
+                entries.add(e);
+                tree.insert(e);
+            }
+            assertEquals(entries.size(), tree.size());
+            checkSearches(tree, entries, random);
+
+            Collections.shuffle(entries, random);
+            for (int i = 0; i < 3000; ++i) assertTrue(tree.delete(entries.remove(entries.size() - 1)), "找不到树叶");
+            assertThrows(IllegalStateException.class, () -> tree.delete(new Entry(2.0, 2.0)));
+            assertEquals(entries.size(), tree.size());
+            checkSearches(tree, entries, random);
+
+            // The pool is far smaller than the tree, but the top of it is always there
+            assertTrue(tree.misses() > 0);
+            assertTrue(tree.hitRatio() > 0.0 && tree.hitRatio() < 1.0);
+
+            tree.resetStats();
+            assertEquals(0.0, tree.hitRatio());
+        }
+    }
+
+    /**
+     * Same as RTreeTests.badDeletion, a missing entry is an error and leaves the tree alone
+     */
+    @Test
+    void badDeletion(@TempDir Path dir) throws Exception {
+        try (PagedRTree<Entry> tree = new PagedRTree<>(dir.resolve("tree"), 256, 2, 2, new EntryCodec2D())) {
+            List<Entry> entries = new ArrayList<>(Arrays.asList(
+                    new Entry(4.0, 3.0),
+                    new Entry(2.0, 1.0),
+                    new Entry(3.0, 4.0),
+                    new Entry(4.0, 1.0),
+                    new Entry(1.0, 5.0),
+                    new Entry(2.0, 6.0)
+            ));
+            for (Entry e : entries) tree.insert(e);
+
+            assertTrue(tree.delete(entries.remove(4)), "找不到树叶");
+            assertEquals(5, tree.search(new Range[]{new Range<>(0.0, 10.0), new Range<>(0.0, 10.1)}).size(), "答案不对，你死定了");
+
+            assertThrows(IllegalStateException.class, () -> tree.delete(new Entry(0.0, 0.0)));
+            assertThrows(IllegalStateException.class, () -> tree.delete(new Entry(1.0, 5.0))); // Gone already
+            assertEquals(entries.size(), tree.size());
+            checkSearches(tree, entries, new Random(26));
+        }
+    }
+
+    /**
+     * Everything is still there after closing and opening the file again, and freed pages are used again
+     */
+    @Test
+    void reopenTest(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("tree");
+        Random random = new Random(25);
+        List<Entry> entries = new ArrayList<>();
+
+        try (PagedRTree<Entry> tree = new PagedRTree<>(file, 256, 16, 2, new EntryCodec2D())) {
+            for (int i = 0; i < 2000; ++i) {
+                Entry e = new Entry(random.nextDouble(), random.nextDouble());
+                entries.add(e);
+                tree.insert(e);
+            }
+        }
+        long length = Files.size(file);
+
+        try (PagedRTree<Entry> tree = new PagedRTree<>(file, 256, 16, 2, new EntryCodec2D())) {
+            assertEquals(entries.size(), tree.size());
+            checkSearches(tree, entries, random);
+
+            // Deleting and inserting the same number again should fit in the pages that were freed
+            Collections.shuffle(entries, random);
+            for (int i = 0; i < 1000; ++i) assertTrue(tree.delete(entries.remove(entries.size() - 1)), "找不到树叶");
+            for (int i = 0; i < 1000; ++i) {
+                Entry e = new Entry(random.nextDouble(), random.nextDouble());
+                entries.add(e);
+                tree.insert(e);
+            }
+            checkSearches(tree, entries, random);
+        }
+        assertTrue(Files.size(file) < length * 3 / 2, "文件太大了");
+
+        assertThrows(IllegalArgumentException.class, () -> new PagedRTree<>(file, 512, 16, 2, new EntryCodec2D()));
+    }
+
+    /**
+     * A codec writing fewer bytes than it says is caught instead of leaving garbage in the page
+     */
+    @Test
+    void badCodecTest(@TempDir Path dir) throws Exception {
+        EntryCodec<Entry> shortCodec = new EntryCodec2D() {
+            @Override
+            public void write(Entry entry, ByteBuffer buf) {
+                buf.putDouble(entry.getParamValue(0));
+            }
+        };
+
+        PagedRTree<Entry> tree = new PagedRTree<>(dir.resolve("tree"), 256, 8, 2, shortCodec);
+        tree.insert(new Entry(0.5, 0.5));
+        assertThrows(IllegalArgumentException.class, tree::flush);
+        assertThrows(IllegalArgumentException.class, tree::close);
+    }
+}
@@ -0,0 +1,62 @@
+import model.PersistentRTree;
+import model.RTreeNode;
+import model.Range;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+
+public class PersistentRTreeTests {
+
+    /**
+     * Compares against a brute force filter, and checks that old snapshots never change
+     */
+    @Test
+    void stressTest() {
+        for (int t = 0; t < 50; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            int fanout = (int) (Math.random() * 15) + 2;
+            PersistentRTree<Entry> tree = new PersistentRTree<>(max, max / 2, fanout, 2);
+
+            // Snapshots with what they held when they were taken
+            List<PersistentRTree.Snapshot<Entry>> snapshots = new ArrayList<>();
+            List<List<Entry>> contents = new ArrayList<>();
+
+            ArrayList<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 1000; ++i) {
+                Entry e = new Entry(Math.random(), Math.random());
+                entries.add(e);
+                tree.insert(e);
+
+                // Random chance for deletion
+                if (Math.random() < 0.5) assertTrue(tree.delete(entries.remove((int) (Math.random() * entries.size()))));
+
+                if (i % 100 == 0) {
+                    snapshots.add(tree.snapshot());
+                    contents.add(new ArrayList<>(entries));
+                }
+            }
+            assertEquals(entries.size(), tree.size());
+            assertFalse(tree.delete(new Entry(2.0, 2.0)));
+
+            snapshots.add(tree.snapshot());
+            contents.add(entries);
+
+            Double[] inputs = new Double[]{Math.random(), Math.random(), Math.random(), Math.random()};
+            Arrays.sort(inputs);
+            Range[] query = new Range[]{new Range(inputs[0], inputs[2]), new Range(inputs[1], inputs[3])};
+
+            for (int s = 0; s < snapshots.size(); ++s) {
+                List<Entry> expected = new ArrayList<>(contents.get(s));
+                expected.removeIf(e -> !RTreeNode.isInRange(query, e.getParamValues()));
+
+                List<Entry> result = snapshots.get(s).search(query);
+                assertEquals(expected.size(), result.size(), "答案不对，你死定了");
+                assertEquals(new HashSet<>(expected), new HashSet<>(result), "答案不对，你死定了");
+                assertEquals(expected.size(), snapshots.get(s).count(query), "数错了");
+            }
+        }
+    }
+}
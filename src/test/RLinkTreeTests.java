@@ -0,0 +1,123 @@
+import model.RLinkTree;
+import model.RTreeNode;
+import model.Range;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class RLinkTreeTests {
+
+    // When each operation on an entry started and ended, Long.MAX_VALUE if it never did
+    static class History {
+        final Entry entry;
+        volatile long insertStart = Long.MAX_VALUE, insertEnd = Long.MAX_VALUE;
+        volatile long deleteStart = Long.MAX_VALUE, deleteEnd = Long.MAX_VALUE;
+
+        History(Entry entry) {this.entry = entry;}
+    }
+
+    record Query(Range[] ranges, long start, long end, List<Entry> result) {}
+
+    /**
+     * Writers insert and delete their own entries while readers search, then every search is checked
+     * against the brute force answer for each entry. An entry inserted before the search started and
+     * not deleted before it ended must be there, and one inserted after or deleted before must not.
+     */
+    @Test
+    void stressTest() throws Exception {
+        RLinkTree<Entry> tree = new RLinkTree<>(8, 3, 8, 2);
+        AtomicLong clock = new AtomicLong();
+
+        int writers = 3, readers = 3, opsPerWriter = 20000;
+        List<History>[] histories = new List[writers];
+        List<Query>[] queries = new List[readers];
+
+        ExecutorService pool = Executors.newFixedThreadPool(writers + readers);
+        CountDownLatch writing = new CountDownLatch(writers);
+        List<Future<?>> tasks = new ArrayList<>();
+
+        for (int w = 0; w < writers; ++w) {
+            List<History> mine = histories[w] = new ArrayList<>();
+            tasks.add(pool.submit(() -> {
+                Random random = new Random();
+                List<History> alive = new ArrayList<>();
+                for (int i = 0; i < opsPerWriter; ++i) {
+                    if (alive.size() < 500 || random.nextInt(3) > 0) {
+                        History h = new History(new Entry(random.nextDouble(), random.nextDouble()));
+                        mine.add(h);
+                        h.insertStart = clock.incrementAndGet();
+                        tree.insert(h.entry);
+                        h.insertEnd = clock.incrementAndGet();
+                        alive.add(h);
+                    }
+                    else {
+                        History h = alive.remove(random.nextInt(alive.size()));
+                        h.deleteStart = clock.incrementAndGet();
+                        assertTrue(tree.delete(h.entry), "找不到树叶");
+                        h.deleteEnd = clock.incrementAndGet();
+                    }
+                }
+                writing.countDown();
+                return null;
+            }));
+        }
+
+        for (int r = 0; r < readers; ++r) {
+            List<Query> mine = queries[r] = new ArrayList<>();
+            tasks.add(pool.submit(() -> {
+                Random random = new Random();
+                while (writing.getCount() > 0) {
+                    double x = random.nextDouble() * 0.8, y = random.nextDouble() * 0.8;
+                    Range[] ranges = new Range[]{new Range(x, x + 0.2), new Range(y, y + 0.2)};
+
+                    long start = clock.incrementAndGet();
+                    List<Entry> result = tree.search(ranges);
+                    mine.add(new Query(ranges, start, clock.incrementAndGet(), result));
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> task : tasks) task.get(); // Rethrows whatever failed
+        pool.shutdown();
+
+        // Brute force every search
+        List<History> all = new ArrayList<>();
+        for (List<History> mine : histories) all.addAll(mine);
+
+        int checked = 0;
+        for (List<Query> mine : queries) for (Query q : mine) {
+            Set<Entry> result = Collections.newSetFromMap(new IdentityHashMap<>());
+            result.addAll(q.result);
+            assertEquals(q.result.size(), result.size(), "有重复");
+
+            for (Entry e : result) assertTrue(RTreeNode.isInRange(q.ranges, e.getParamValues()), "答案不对，你死定了");
+
+            for (History h : all) {
+                if (!RTreeNode.isInRange(q.ranges, h.entry.getParamValues())) continue;
+                if (h.insertEnd < q.start && h.deleteStart > q.end) assertTrue(result.contains(h.entry), "少了一个");
+                if (h.insertStart > q.end || h.deleteEnd < q.start) assertFalse(result.contains(h.entry), "多了一个");
+            }
+            ++checked;
+        }
+        assertTrue(checked > 0);
+
+        // And what is left is exactly what was never deleted
+        Range[] everything = new Range[]{new Range(0.0, 1.0), new Range(0.0, 1.0)};
+        Set<Entry> left = Collections.newSetFromMap(new IdentityHashMap<>());
+        left.addAll(tree.search(everything));
+
+        long alive = 0;
+        for (History h : all) {
+            assertEquals(h.deleteEnd == Long.MAX_VALUE, left.contains(h.entry));
+            if (h.deleteEnd == Long.MAX_VALUE) ++alive;
+        }
+        assertEquals(alive, left.size());
+        assertEquals(alive, tree.size());
+    }
+}
@@ -1,12 +1,19 @@
+import model.Aggregate;
+import model.EntryCodec;
+import model.GhostNode;
 import model.RTree;
 import model.RTreeEntry;
 import model.RTreeNode;
 import model.Range;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import static java.lang.Math.signum;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 
@@ -186,11 +193,742 @@ public class RTreeTests {
         );
     }
 
+    /**
+     * Same as the stress test, but with wide internal nodes
+     * The tree should also come out much shallower than with binary internal nodes
+     */
+    @Test
+    void fanoutTest() {
+        int N = 20000;
+
+        RTree<Entry> binary = new RTree<>(4, 2, 2);
+        RTree<Entry> wide = new RTree<>(4, 2, 32, 2);
+
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < N; ++i) {
+            Entry e = new Entry(Math.random(), Math.random());
+            entries.add(e);
+            binary.insert(e);
+            wide.insert(e);
+
+            // Delete every third entry to exercise condenseTree
+            if (i % 3 == 2) {
+                Entry d = entries.remove((int) (Math.random() * entries.size()));
+                binary.delete(d);
+                wide.delete(d);
+            }
+        }
+
+        assertTrue(isValid(wide.getRoot()), "树有问题");
+        assertTrue(height(wide.getRoot()) < height(binary.getRoot()), "树太高了");
+
+        Range[] query = new Range[]{new Range<>(0.2, 0.7), new Range<>(0.1, 0.5)};
+        List<Entry> result = wide.search(query);
+        entries.removeIf(e -> !RTreeNode.isInRange(query, e.getParamValues()));
+
+        result.sort((a, b) -> (int) signum(!Objects.equals(a.coords[0], b.coords[0]) ? a.coords[0] - b.coords[0] : a.coords[1] - b.coords[1]));
+        entries.sort((a, b) -> (int) signum(!Objects.equals(a.coords[0], b.coords[0]) ? a.coords[0] - b.coords[0] : a.coords[1] - b.coords[1]));
+        assertArrayEquals(entries.toArray(), result.toArray(), "答案不对，你死定了");
+    }
+
+    /**
+     * R* mode on clustered data, with forced reinserts and splits on every level
+     */
+    @Test
+    void rStarTest() {
+        for (int t = 0; t < 20; ++t) {
+            int max = (int) (Math.random() * 8) + 4;
+            RTree<Entry> tree = new RTree<>(max, max * 2 / 5, (int) (Math.random() * 8) + 3, 2, RTree.Mode.RSTAR);
+
+            // A few tight clusters
+            ArrayList<Entry> entries = new ArrayList<>();
+            double[][] centres = new double[5][2];
+            for (double[] c : centres) { c[0] = Math.random(); c[1] = Math.random(); }
+
+            for (int i = 0; i < 3000; ++i) {
+                double[] c = centres[i % centres.length];
+                Entry e = new Entry(c[0] + Math.random() * 0.05, c[1] + Math.random() * 0.05);
+                entries.add(e);
+                tree.insert(e);
+
+                if (Math.random() < 0.3) tree.delete(entries.remove((int) (Math.random() * entries.size())));
+            }
+
+            assertTrue(isValid(tree.getRoot()), "树有问题");
+
+            Double[] inputs = new Double[]{Math.random(), Math.random(), Math.random(), Math.random()};
+            Arrays.sort(inputs);
+            Range[] query = new Range[]{new Range(inputs[0], inputs[2]), new Range(inputs[1], inputs[3])};
+
+            List<Entry> result = tree.search(query);
+            entries.removeIf(e -> !RTreeNode.isInRange(query, e.getParamValues()));
+
+            result.sort((a, b) -> (int) signum(!Objects.equals(a.coords[0], b.coords[0]) ? a.coords[0] - b.coords[0] : a.coords[1] - b.coords[1]));
+            entries.sort((a, b) -> (int) signum(!Objects.equals(a.coords[0], b.coords[0]) ? a.coords[0] - b.coords[0] : a.coords[1] - b.coords[1]));
+            assertArrayEquals(entries.toArray(), result.toArray(), "答案不对，你死定了");
+        }
+    }
+
+    /**
+     * STR packing, on top of a few entries that were already inserted
+     */
+    @Test
+    void bulkLoadTest() {
+        for (int t = 0; t < 50; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            int fanout = (int) (Math.random() * 30) + 2;
+            RTree<Entry> tree = new RTree<>(max, max / 2, fanout, 2);
+
+            ArrayList<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 10; ++i) {
+                Entry e = new Entry(Math.random(), Math.random());
+                entries.add(e);
+                tree.insert(e);
+            }
+
+            ArrayList<Entry> loaded = new ArrayList<>();
+            int N = (int) (Math.random() * 20000);
+            for (int i = 0; i < N; ++i) loaded.add(new Entry(Math.random(), Math.random()));
+            tree.bulkLoad(loaded, t % 2 == 0);
+            entries.addAll(loaded);
+
+            assertTrue(isValid(tree.getRoot()), "树有问题");
+            assertTrue(isPacked(tree.getRoot(), height(tree.getRoot()), max, max / 2), "树没装好");
+
+            // Normal insertions and deletions still work afterwards
+            for (int i = 0; i < 100; ++i) {
+                Entry e = new Entry(Math.random(), Math.random());
+                entries.add(e);
+                tree.insert(e);
+                tree.delete(entries.remove((int) (Math.random() * entries.size())));
+            }
+
+            Double[] inputs = new Double[]{Math.random(), Math.random(), Math.random(), Math.random()};
+            Arrays.sort(inputs);
+            Range[] query = new Range[]{new Range(inputs[0], inputs[2]), new Range(inputs[1], inputs[3])};
+
+            List<Entry> result = tree.search(query);
+            entries.removeIf(e -> !RTreeNode.isInRange(query, e.getParamValues()));
+
+            result.sort((a, b) -> (int) signum(!Objects.equals(a.coords[0], b.coords[0]) ? a.coords[0] - b.coords[0] : a.coords[1] - b.coords[1]));
+            entries.sort((a, b) -> (int) signum(!Objects.equals(a.coords[0], b.coords[0]) ? a.coords[0] - b.coords[0] : a.coords[1] - b.coords[1]));
+            assertArrayEquals(entries.toArray(), result.toArray(), "答案不对，你死定了");
+        }
+    }
+
+    /**
+     * Lazy search gives the same answers as search, and stops when the tree changes under it
+     */
+    @Test
+    void searchStreamTest() {
+        RTree<Entry> tree = new RTree<>(8, 4, 8, 2);
+        for (int i = 0; i < 5000; ++i) tree.insert(new Entry(Math.random(), Math.random()));
+
+        for (int t = 0; t < 50; ++t) {
+            Double[] inputs = new Double[]{Math.random(), Math.random(), Math.random(), Math.random()};
+            Arrays.sort(inputs);
+            Range[] query = new Range[]{new Range(inputs[0], inputs[2]), new Range(inputs[1], inputs[3])};
+
+            List<Entry> expected = tree.search(query);
+            List<Entry> result = tree.searchStream(query).toList();
+            assertEquals(new HashSet<>(expected), new HashSet<>(result), "答案不对，你死定了");
+            assertEquals(expected.size(), result.size(), "答案不对，你死定了");
+
+            // Stopping early only finds what it needs
+            assertEquals(Math.min(3, expected.size()), tree.searchStream(query).limit(3).count());
+        }
+
+        Range[] everything = new Range[]{new Range(0.0, 1.0), new Range(0.0, 1.0)};
+        Iterator<Entry> it = tree.searchIterator(everything);
+        it.next();
+        tree.insert(new Entry(0.5, 0.5));
+        assertThrows(ConcurrentModificationException.class, it::hasNext);
+    }
+
+    /**
+     * Visitor search finds the same entries as search, and allocates nothing once warmed up
+     */
+    @Test
+    void visitorSearchTest() {
+        RTree<Entry> tree = new RTree<>(8, 4, 16, 2);
+        for (int i = 0; i < 20000; ++i) tree.insert(new Entry(Math.random(), Math.random()));
+
+        Range[] query = new Range[]{new Range(0.2, 0.6), new Range(0.3, 0.5)};
+        List<Entry> visited = new ArrayList<>();
+        tree.search(query, visited::add);
+        assertEquals(tree.search(query).size(), visited.size(), "答案不对，你死定了");
+
+        // Early stop
+        int[] seen = new int[1];
+        assertFalse(tree.searchUntil(query, e -> ++seen[0] < 5));
+        assertEquals(5, seen[0]);
+
+        // Steady state should not allocate
+        long[] count = new long[1];
+        java.util.function.Consumer<Entry> counter = e -> ++count[0];
+        for (int i = 0; i < 5000; ++i) tree.search(query, counter);
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 1000; ++i) tree.search(query, counter);
+        long allocated = bean.getThreadAllocatedBytes(id) - before;
+
+        assertTrue(allocated < 1000 * 8, "每次搜索用了 " + allocated / 1000.0 + " bytes");
+    }
+
+    /**
+     * Counting matches the size of the search, in both modes and after bulk loading
+     */
+    @Test
+    void countTest() {
+        for (int t = 0; t < 60; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            int fanout = (int) (Math.random() * 15) + 2;
+            RTree<Entry> tree = new RTree<>(max, max / 2, fanout, 2, t % 2 == 0 ? RTree.Mode.GUTTMAN : RTree.Mode.RSTAR);
+
+            ArrayList<Entry> entries = new ArrayList<>();
+            if (t % 3 == 0) {
+                for (int i = 0; i < 2000; ++i) entries.add(new Entry(Math.random(), Math.random()));
+                tree.bulkLoad(entries);
+            }
+            for (int i = 0; i < 1000; ++i) {
+                Entry e = new Entry(Math.random(), Math.random());
+                entries.add(e);
+                tree.insert(e);
+                if (Math.random() < 0.5) tree.delete(entries.remove((int) (Math.random() * entries.size())));
+            }
+
+            Range[] everything = new Range[]{new Range(0.0, 1.0), new Range(0.0, 1.0)};
+            assertEquals(entries.size(), tree.count(everything), "数错了");
+
+            Double[] inputs = new Double[]{Math.random(), Math.random(), Math.random(), Math.random()};
+            Arrays.sort(inputs);
+            Range[] query = new Range[]{new Range(inputs[0], inputs[2]), new Range(inputs[1], inputs[3])};
+            assertEquals(tree.search(query).size(), tree.count(query), "数错了");
+        }
+    }
+
+    /**
+     * Aggregates match adding up the search results, in both modes
+     */
+    @Test
+    void aggregateTest() {
+        class Offer extends Entry {
+            final double kwh;
+            Offer(double x, double y, double kwh) {super(x, y); this.kwh = kwh;}
+
+            @Override
+            public double getMeasure() {return kwh;}
+        }
+
+        for (int t = 0; t < 60; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            int fanout = (int) (Math.random() * 15) + 2;
+            RTree<Offer> tree = new RTree<>(max, max / 2, fanout, 2, t % 2 == 0 ? RTree.Mode.GUTTMAN : RTree.Mode.RSTAR);
+
+            ArrayList<Offer> entries = new ArrayList<>();
+            if (t % 3 == 0) {
+                for (int i = 0; i < 2000; ++i) entries.add(new Offer(Math.random(), Math.random(), Math.random() * 100));
+                tree.bulkLoad(entries);
+            }
+            for (int i = 0; i < 1000; ++i) {
+                Offer e = new Offer(Math.random(), Math.random(), Math.random() * 100);
+                entries.add(e);
+                tree.insert(e);
+                if (Math.random() < 0.5) tree.delete(entries.remove((int) (Math.random() * entries.size())));
+            }
+
+            Double[] inputs = new Double[]{Math.random(), Math.random(), Math.random(), Math.random()};
+            Arrays.sort(inputs);
+            Range[] query = new Range[]{new Range(inputs[0], inputs[2]), new Range(inputs[1], inputs[3])};
+
+            List<Offer> expected = tree.search(query);
+            Aggregate result = tree.aggregate(query);
+
+            assertEquals(expected.size(), result.getCount(), "数错了");
+            assertEquals(expected.stream().mapToDouble(Offer::getMeasure).sum(), result.getSum(), 1e-6, "加错了");
+            assertEquals(expected.stream().mapToDouble(Offer::getMeasure).min().orElse(Double.POSITIVE_INFINITY), result.getMin(), "最小错了");
+            assertEquals(expected.stream().mapToDouble(Offer::getMeasure).max().orElse(Double.NEGATIVE_INFINITY), result.getMax(), "最大错了");
+        }
+    }
+
+    /**
+     * Nearest neighbours match sorting everything by distance
+     */
+    @Test
+    void nearestTest() {
+        for (int t = 0; t < 50; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            int fanout = (int) (Math.random() * 15) + 2;
+            RTree<Entry> tree = new RTree<>(max, max / 2, fanout, 2, t % 2 == 0 ? RTree.Mode.GUTTMAN : RTree.Mode.RSTAR);
+
+            ArrayList<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 2000; ++i) {
+                Entry e = new Entry(Math.random(), Math.random());
+                entries.add(e);
+                tree.insert(e);
+                if (Math.random() < 0.3) tree.delete(entries.remove((int) (Math.random() * entries.size())));
+            }
+
+            double[] point = new double[]{Math.random(), Math.random()};
+            java.util.function.ToDoubleFunction<Entry> dist = e -> (e.coords[0] - point[0]) * (e.coords[0] - point[0]) + (e.coords[1] - point[1]) * (e.coords[1] - point[1]);
+            entries.sort(Comparator.comparingDouble(dist));
+
+            int k = (int) (Math.random() * 50) + 1;
+            List<Entry> result = tree.nearest(point, k);
+            assertEquals(k, result.size());
+            for (int i = 0; i < k; ++i)
+                assertEquals(dist.applyAsDouble(entries.get(i)), dist.applyAsDouble(result.get(i)), "答案不对，你死定了");
+
+            // Browsing goes through everything in order
+            Iterator<Entry> it = tree.nearestIterator(point);
+            for (Entry e : entries) assertEquals(dist.applyAsDouble(e), dist.applyAsDouble(it.next()), "答案不对，你死定了");
+            assertFalse(it.hasNext());
+        }
+
+        assertTrue(new RTree<Entry>(4, 2, 4, 2).nearest(new double[]{0.0, 0.0}, 3).isEmpty());
+    }
+
+    /**
+     * Parallel search finds the same entries as search, whatever the threshold
+     */
+    @Test
+    void parallelSearchTest() {
+        for (int t = 0; t < 20; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            int fanout = (int) (Math.random() * 15) + 2;
+            RTree<Entry> tree = new RTree<>(max, max / 2, fanout, 2);
+
+            ArrayList<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 20000; ++i) entries.add(new Entry(Math.random(), Math.random()));
+            if (t % 2 == 0) tree.bulkLoad(entries);
+            else for (Entry e : entries) tree.insert(e);
+
+            Double[] inputs = new Double[]{Math.random(), Math.random(), Math.random(), Math.random()};
+            Arrays.sort(inputs);
+            Range[] query = new Range[]{new Range(inputs[0], inputs[2]), new Range(inputs[1], inputs[3])};
+
+            List<Entry> expected = tree.search(query);
+            for (long threshold : new long[]{1, 100, 1 << 20}) {
+                List<Entry> result = tree.searchParallel(query, threshold);
+                assertEquals(expected.size(), result.size(), "答案不对，你死定了");
+                assertEquals(new HashSet<>(expected), new HashSet<>(result), "答案不对，你死定了");
+            }
+        }
+    }
+
+    /**
+     * A batch gives each query the same entries as searching it alone
+     */
+    @Test
+    void searchBatchTest() {
+        for (int t = 0; t < 20; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            int fanout = (int) (Math.random() * 15) + 2;
+            RTree<Entry> tree = new RTree<>(max, max / 2, fanout, 2, t % 2 == 0 ? RTree.Mode.GUTTMAN : RTree.Mode.RSTAR);
+            for (int i = 0; i < 5000; ++i) tree.insert(new Entry(Math.random(), Math.random()));
+
+            List<Range<Double>[]> queries = new ArrayList<>();
+            for (int q = 0; q < 200; ++q) {
+                double x = Math.random(), y = Math.random(), w = Math.random() * 0.2;
+                queries.add(new Range[]{new Range(x, x + w), new Range(y, y + w)});
+            }
+
+            List<List<Entry>> results = tree.searchBatch(queries);
+            assertEquals(queries.size(), results.size());
+            for (int q = 0; q < queries.size(); ++q) {
+                List<Entry> expected = tree.search(queries.get(q));
+                assertEquals(expected.size(), results.get(q).size(), "答案不对，你死定了");
+                assertEquals(new HashSet<>(expected), new HashSet<>(results.get(q)), "答案不对，你死定了");
+            }
+        }
+
+        assertTrue(new RTree<Entry>(4, 2, 4, 2).searchBatch(List.of()).isEmpty());
+    }
+
+    /**
+     * Batched insertions and deletions end up with a valid, tight tree holding the right entries
+     */
+    @Test
+    void batchUpdateTest() {
+        for (int t = 0; t < 40; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            int fanout = (int) (Math.random() * 15) + 2;
+            RTree<Entry> tree = new RTree<>(max, max / 2, fanout, 2, t % 2 == 0 ? RTree.Mode.GUTTMAN : RTree.Mode.RSTAR);
+
+            ArrayList<Entry> entries = new ArrayList<>();
+            for (int round = 0; round < 5; ++round) {
+                List<Entry> burst = new ArrayList<>();
+                for (int i = 0; i < 500; ++i) burst.add(new Entry(Math.random(), Math.random()));
+                tree.insertAll(burst);
+                entries.addAll(burst);
+
+                Collections.shuffle(entries);
+                List<Entry> gone = new ArrayList<>(entries.subList(0, 300));
+                entries.subList(0, 300).clear();
+                gone.add(new Entry(2.0, 2.0)); // Not in the tree
+                assertEquals(300, tree.deleteAll(gone));
+
+                assertTrue(isValid(tree.getRoot()), "树有问题");
+                assertTrue(isPacked(tree.getRoot(), height(tree.getRoot()), max, 0), "树没装好");
+            }
+
+            Range[] everything = new Range[]{new Range(0.0, 1.0), new Range(0.0, 1.0)};
+            assertEquals(entries.size(), tree.count(everything), "数错了");
+            assertEquals(entries.stream().mapToDouble(e -> e.coords[0]).min().getAsDouble(), tree.getRoot().getRanges()[0].getMin(), "范围不对");
+            assertEquals(entries.stream().mapToDouble(e -> e.coords[1]).max().getAsDouble(), tree.getRoot().getRanges()[1].getMax(), "范围不对");
+
+            Double[] inputs = new Double[]{Math.random(), Math.random(), Math.random(), Math.random()};
+            Arrays.sort(inputs);
+            Range[] query = new Range[]{new Range(inputs[0], inputs[2]), new Range(inputs[1], inputs[3])};
+            List<Entry> result = tree.search(query);
+            entries.removeIf(e -> !RTreeNode.isInRange(query, e.getParamValues()));
+            assertEquals(new HashSet<>(entries), new HashSet<>(result), "答案不对，你死定了");
+            assertEquals(entries.size(), result.size(), "答案不对，你死定了");
+        }
+    }
+
+    /**
+     * Deletes find their leaf through every way an entry can get in or move, and equal copies still work
+     */
+    @Test
+    void leafIndexTest() {
+        for (int t = 0; t < 20; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            RTree<Entry> tree = new RTree<>(max, max / 2, 4, 2, t % 2 == 0 ? RTree.Mode.GUTTMAN : RTree.Mode.RSTAR);
+
+            List<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 3000; ++i) entries.add(new Entry(Math.random(), Math.random()));
+            tree.bulkLoad(entries.subList(0, 1000));
+            for (Entry e : entries.subList(1000, 2000)) tree.insert(e);
+            tree.insertAll(entries.subList(2000, 3000));
+
+            Collections.shuffle(entries);
+            for (int i = 0; i < 2000; ++i) {
+                Entry e = entries.remove(entries.size() - 1);
+                assertTrue(tree.delete(i % 2 == 0 ? e : new Entry(e.coords)), "找不到树叶");
+
+                // Out and back in again
+                if (i % 10 == 0) {
+                    e = entries.get(i % entries.size());
+                    assertTrue(tree.delete(e), "找不到树叶");
+                    tree.insert(e);
+                }
+            }
+
+            assertTrue(isValid(tree.getRoot()), "树有问题");
+            Range[] everything = new Range[]{new Range(0.0, 1.0), new Range(0.0, 1.0)};
+            assertEquals(new HashSet<>(entries), new HashSet<>(tree.search(everything)), "答案不对，你死定了");
+
+            for (Entry e : entries) assertTrue(tree.delete(e), "找不到树叶");
+            assertEquals(0, tree.count(everything), "数错了");
+        }
+    }
+
+    /**
+     * Single deletes that cut off whole subtrees put them back at the right level
+     */
+    @Test
+    void condenseTest() {
+        for (int t = 0; t < 40; ++t) {
+            int max = (int) (Math.random() * 4) + 2;
+            int fanout = (int) (Math.random() * 3) + 2;
+            RTree<Entry> tree = new RTree<>(max, max / 2, fanout, 2, t % 2 == 0 ? RTree.Mode.GUTTMAN : RTree.Mode.RSTAR);
+
+            List<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 1500; ++i) entries.add(new Entry(Math.random(), Math.random()));
+            for (Entry e : entries) tree.insert(e);
+
+            Collections.shuffle(entries);
+            while (!entries.isEmpty()) {
+                assertTrue(tree.delete(entries.remove(entries.size() - 1)), "找不到树叶");
+
+                if (entries.size() % 100 != 0) continue;
+                assertTrue(isValid(tree.getRoot()), "树有问题");
+                assertTrue(isPacked(tree.getRoot(), height(tree.getRoot()), max, 0), "树没装好");
+
+                Range[] everything = new Range[]{new Range(0.0, 1.0), new Range(0.0, 1.0)};
+                assertEquals(new HashSet<>(entries), new HashSet<>(tree.search(everything)), "答案不对，你死定了");
+                assertEquals(entries.size(), tree.count(everything), "数错了");
+            }
+        }
+    }
+
+    /**
+     * Entries moved a little or a lot are found where they went, and the tree stays valid and tight
+     */
+    @Test
+    void updateTest() {
+        for (int t = 0; t < 20; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            int fanout = (int) (Math.random() * 6) + 2;
+            RTree<Entry> tree = new RTree<>(max, max / 2, fanout, 2, t % 2 == 0 ? RTree.Mode.GUTTMAN : RTree.Mode.RSTAR);
+
+            List<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 2000; ++i) entries.add(new Entry(Math.random(), Math.random()));
+            for (Entry e : entries) tree.insert(e);
+
+            for (int i = 0; i < 10000; ++i) {
+                Entry e = entries.get((int) (Math.random() * entries.size()));
+                double step = i % 5 == 0 ? 1.0 : 0.01; // Mostly small moves, sometimes anywhere, wrapping around
+                double x = (e.coords[0] + (Math.random() - 0.5) * step + 1.0) % 1.0;
+                double y = (e.coords[1] + (Math.random() - 0.5) * step + 1.0) % 1.0;
+
+                // Sometimes by an equal copy
+                assertTrue(tree.update(i % 7 == 0 ? new Entry(e.coords.clone()) : e, new double[]{x, y}), "找不到树叶");
+                assertEquals(x, e.coords[0]);
+            }
+            assertFalse(tree.update(new Entry(2.0, 2.0), new double[]{0.5, 0.5}));
+
+            // Handing out a copy without overriding setParamValue loses the move, which must not pass silently
+            Entry copying = new Entry(0.5, 0.5) {
+                @Override
+                public Double[] getParamValues() {return coords.clone();}
+
+                @Override
+                public double getParamValue(int dim) {return coords[dim];}
+            };
+            tree.insert(copying);
+            assertThrows(IllegalStateException.class, () -> tree.update(copying, new double[]{0.25, 0.25}));
+            assertTrue(tree.delete(copying), "找不到树叶");
+
+            // Only the first dimension moves, which has to be put back before throwing
+            Entry stuck = new Entry(0.5, 0.5) {
+                @Override
+                public void setParamValue(int dim, double value) {if (dim == 0) coords[0] = value;}
+            };
+            tree.insert(stuck);
+            assertThrows(IllegalStateException.class, () -> tree.update(stuck, new double[]{0.25, 0.25}));
+            assertArrayEquals(new Double[]{0.5, 0.5}, stuck.coords);
+            assertTrue(tree.delete(stuck), "找不到树叶");
+
+            assertTrue(isValid(tree.getRoot()), "树有问题");
+            assertTrue(isPacked(tree.getRoot(), height(tree.getRoot()), max, 0), "树没装好");
+            assertEquals(entries.stream().mapToDouble(e -> e.coords[0]).min().getAsDouble(), tree.getRoot().getRanges()[0].getMin(), "范围不对");
+            assertEquals(entries.stream().mapToDouble(e -> e.coords[1]).max().getAsDouble(), tree.getRoot().getRanges()[1].getMax(), "范围不对");
+
+            Double[] inputs = new Double[]{Math.random(), Math.random(), Math.random(), Math.random()};
+            Arrays.sort(inputs);
+            Range[] query = new Range[]{new Range(inputs[0], inputs[2]), new Range(inputs[1], inputs[3])};
+            List<Entry> expected = new ArrayList<>(entries);
+            expected.removeIf(e -> !RTreeNode.isInRange(query, e.getParamValues()));
+            assertEquals(new HashSet<>(expected), new HashSet<>(tree.search(query)), "答案不对，你死定了");
+            assertEquals(expected.size(), tree.count(query), "数错了");
+
+            for (Entry e : entries) assertTrue(tree.delete(e), "找不到树叶");
+        }
+    }
+
+    /**
+     * Path ids stay right through splits, root growth, condensing and reinserts, and lead back to their node
+     */
+    @Test
+    void pathIdTest() {
+        for (int t = 0; t < 20; ++t) {
+            int max = (int) (Math.random() * 4) + 2;
+            int fanout = (int) (Math.random() * 6) + 2;
+            RTree<Entry> tree = new RTree<>(max, max / 2, fanout, 2, t % 2 == 0 ? RTree.Mode.GUTTMAN : RTree.Mode.RSTAR);
+
+            List<Entry> entries = new ArrayList<>();
+            for (int round = 0; round < 10; ++round) {
+                for (int i = 0; i < 300; ++i) {
+                    Entry e = new Entry(Math.random(), Math.random());
+                    entries.add(e);
+                    tree.insert(e);
+                }
+                Collections.shuffle(entries);
+                for (int i = 0; i < 200; ++i) tree.delete(entries.remove(entries.size() - 1));
+
+                // Walk the tree, working out each id the slow way
+                ArrayDeque<RTreeNode<Entry>> nodes = new ArrayDeque<>();
+                ArrayDeque<List<Integer>> paths = new ArrayDeque<>();
+                nodes.push(tree.getRoot());
+                paths.push(new ArrayList<>());
+                while (!nodes.isEmpty()) {
+                    RTreeNode<Entry> n = nodes.pop();
+                    List<Integer> path = paths.pop();
+
+                    int top = tree.getRoot().getHeight();
+                    assertEquals(top - path.size(), n.getHeight(), "高度不对");
+                    for (int i = 0; i < path.size(); ++i) assertEquals((int) path.get(i), n.getSlot(top - 1 - i), "路不对");
+                    if (n.getPathId() != RTreeNode.NO_PATH) assertSame(n, tree.nodeOf(n.getPathId()), "找错了");
+
+                    for (int i = 0; i < n.childSlots(); ++i) if (n.neighbours[i] != null) {
+                        List<Integer> childPath = new ArrayList<>(path);
+                        childPath.add(i);
+                        nodes.push((RTreeNode<Entry>) n.neighbours[i]);
+                        paths.push(childPath);
+                    }
+                }
+            }
+
+            tree.bulkLoad(new ArrayList<>());
+            assertSame(tree.getRoot(), tree.nodeOf(tree.getRoot().getPathId()), "找错了");
+        }
+    }
+
+    /**
+     * A ghost node goes under the node it names, can be found by its id and deleted again
+     */
+    @Test
+    void ghostNodeTest() {
+        for (int t = 0; t < 20; ++t) {
+            int fanout = (int) (Math.random() * 6) + 2;
+            RTree<Entry> tree = new RTree<>(4, 2, fanout, 2, t % 2 == 0 ? RTree.Mode.GUTTMAN : RTree.Mode.RSTAR);
+            for (int i = 0; i < 2000; ++i) tree.insert(new Entry(Math.random(), Math.random()));
+
+            for (int i = 0; i < 20; ++i) {
+                // Any node just above the leaves, slots can have holes after deletes
+                RTreeNode<Entry> parent = tree.getRoot();
+                while (parent.getHeight() > 1) {
+                    int slot = 0;
+                    while (parent.neighbours[slot] == null) ++slot;
+                    parent = (RTreeNode<Entry>) parent.neighbours[slot];
+                }
+
+                GhostNode<Entry> ghost = new GhostNode<>(new ArrayList<>(), new Range[]{new Range<>(0.4, 0.5), new Range<>(0.4, 0.5)});
+
+                // Only one level above the ghost will do
+                assertThrows(IllegalStateException.class, () -> tree.insert(ghost, tree.getRoot().getPathId()));
+                assertThrows(IllegalStateException.class, () -> tree.insert(ghost, RTreeNode.NO_PATH));
+                assertNull(ghost.getParent());
+
+                tree.insert(ghost, parent.getPathId());
+                assertNotNull(ghost.getParent());
+                assertSame(ghost, tree.nodeOf(ghost.getPathId()), "找错了");
+                assertTrue(tree.delete(ghost), "找不到树叶");
+                assertFalse(tree.delete(ghost));
+            }
+            assertEquals(2000, tree.search(new Range[]{new Range<>(0.0, 1.0), new Range<>(0.0, 1.0)}).size(), "数错了");
+        }
+    }
+
+    /**
+     * A loaded snapshot is the same tree node for node, and keeps working like one
+     */
+    @Test
+    void snapshotTest(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("snapshot");
+        for (int t = 0; t < 20; ++t) {
+            int max = (int) (Math.random() * 8) + 2;
+            int fanout = (int) (Math.random() * 30) + 2;
+            RTree<Entry> tree = new RTree<>(max, max / 2, fanout, 2);
+
+            List<Entry> entries = new ArrayList<>();
+            int N = (int) (Math.random() * 5000);
+            for (int i = 0; i < N; ++i) {
+                Entry e = new Entry(Math.random(), Math.random());
+                entries.add(e);
+                tree.insert(e);
+            }
+            if (t % 2 == 0) tree.bulkLoad(new ArrayList<>());
+            tree.writeSnapshot(file, new EntryCodec2D());
+
+            RTree<Entry> loaded = new RTree<>(max, max / 2, fanout, 2);
+            loaded.insert(new Entry(2.0, 2.0)); // Thrown away by the load
+            loaded.loadSnapshot(file, new EntryCodec2D());
+
+            // Same shape, same domains, same entries
+            ArrayDeque<RTreeNode<Entry>> a = new ArrayDeque<>(), b = new ArrayDeque<>();
+            a.add(tree.getRoot());
+            b.add(loaded.getRoot());
+            while (!a.isEmpty()) {
+                RTreeNode<Entry> n = a.poll(), m = b.poll();
+                assertEquals(n.isLeaf(), m.isLeaf(), "树有问题");
+                assertEquals(n.getNumEntries(), m.getNumEntries(), "数错了");
+                assertEquals(n.getHeight(), m.getHeight(), "高度不对");
+                if (n.getNumEntries() > 0) assertArrayEquals(n.getRanges(), m.getRanges(), "范围不对");
+                assertEquals(n.getItem(), m.getItem(), "答案不对，你死定了");
+                for (int i = 0; i < n.childSlots(); ++i) if (n.neighbours[i] != null) a.add((RTreeNode<Entry>) n.neighbours[i]);
+                for (int i = 0; i < m.childSlots(); ++i) if (m.neighbours[i] != null) b.add((RTreeNode<Entry>) m.neighbours[i]);
+            }
+            assertTrue(b.isEmpty(), "树有问题");
+            if (loaded.getRoot().getPathId() != RTreeNode.NO_PATH)
+                assertSame(loaded.getRoot(), loaded.nodeOf(loaded.getRoot().getPathId()), "找错了");
+
+            // And it changes like any other tree
+            Collections.shuffle(entries);
+            for (int i = 0; i < N / 2; ++i) assertTrue(loaded.delete(entries.remove(entries.size() - 1)), "找不到树叶");
+            for (int i = 0; i < 500; ++i) {
+                Entry e = new Entry(Math.random(), Math.random());
+                entries.add(e);
+                loaded.insert(e);
+            }
+            assertTrue(isValid(loaded.getRoot()), "树有问题");
+            assertTrue(isPacked(loaded.getRoot(), height(loaded.getRoot()), max, max / 2), "树没装好");
+            assertEquals(entries.size(), loaded.getRoot().getNumEntries(), "数错了");
+
+            Range[] everything = new Range[]{new Range(0.0, 1.0), new Range(0.0, 1.0)};
+            List<Entry> result = loaded.search(everything);
+            result.sort((x, y) -> (int) signum(!Objects.equals(x.coords[0], y.coords[0]) ? x.coords[0] - y.coords[0] : x.coords[1] - y.coords[1]));
+            entries.sort((x, y) -> (int) signum(!Objects.equals(x.coords[0], y.coords[0]) ? x.coords[0] - y.coords[0] : x.coords[1] - y.coords[1]));
+            assertArrayEquals(entries.toArray(), result.toArray(), "答案不对，你死定了");
+        }
+
+        // Nodes bigger than the tree takes, and files that are not snapshots
+        RTree<Entry> small = new RTree<>(2, 1, 2, 2);
+        RTree<Entry> big = new RTree<>(16, 8, 16, 2);
+        for (int i = 0; i < 1000; ++i) big.insert(new Entry(Math.random(), Math.random()));
+        big.writeSnapshot(file, new EntryCodec2D());
+        assertThrows(IllegalArgumentException.class, () -> small.loadSnapshot(file, new EntryCodec2D()));
+        assertEquals(0, small.getRoot().getNumEntries(), "树被改了");
+
+        Files.write(file, new byte[64]);
+        assertThrows(IllegalArgumentException.class, () -> big.loadSnapshot(file, new EntryCodec2D()));
+        assertEquals(1000, big.getRoot().getNumEntries(), "树被改了");
+
+        // Codecs not taking the bytes they say are caught, and a failed write leaves nothing behind
+        EntryCodec2D shortCodec = new EntryCodec2D() {
+            @Override
+            public void write(Entry entry, ByteBuffer buf) {buf.putDouble(entry.getParamValue(0));}
+
+            @Override
+            public Entry read(ByteBuffer buf) {return new Entry(buf.getDouble(), 0.0);}
+        };
+        byte[] garbage = Files.readAllBytes(file);
+        assertThrows(IllegalArgumentException.class, () -> big.writeSnapshot(file, shortCodec));
+        assertArrayEquals(garbage, Files.readAllBytes(file), "快照被改了");
+        assertFalse(Files.exists(dir.resolve("snapshot.tmp")), "临时文件还在");
+
+        big.writeSnapshot(file, new EntryCodec2D());
+        RTree<Entry> same = new RTree<>(16, 8, 16, 2);
+        assertThrows(IllegalArgumentException.class, () -> same.loadSnapshot(file, shortCodec));
+        assertEquals(0, same.getRoot().getNumEntries(), "树被改了");
+    }
+
+    /**
+     * Checks that every leaf is at the same depth and every non-root leaf has between min and max entries
+     */
+    boolean isPacked(RTreeNode<Entry> node, int height, int max, int min) {
+        if (node.isLeaf())
+            return height == 0 && node.getItem().size() <= max && (node.getParent() == null || node.getItem().size() >= min);
+
+        for (int i = 0; i < node.childSlots(); ++i)
+            if (node.neighbours[i] != null && !isPacked((RTreeNode<Entry>) node.neighbours[i], height - 1, max, min)) return false;
+        return true;
+    }
+
+    /**
+     * Number of levels below the given node
+     */
+    int height(RTreeNode<Entry> node) {
+        int h = 0;
+        while (!node.isLeaf()) {
+            for (int i = 0; i < node.childSlots(); ++i) if (node.neighbours[i] != null) {
+                node = (RTreeNode<Entry>) node.neighbours[i];
+                break;
+            }
+            ++h;
+        }
+        return h;
+    }
+
     /**
      * Asserts that the parent domain covers the child's domain
      */
     boolean isValid(RTreeNode<Entry> root) {
-        for (int i = 0; i < 3; ++i) if (root.neighbours[i] != null) {
+        for (int i = 0; i < root.childSlots(); ++i) if (root.neighbours[i] != null) {
             Range<Double>[] ranges = ((RTreeNode<Entry>) root.neighbours[i]).getRanges();
 
             for (int j = 0; j < root.getRanges().length; ++j) {
@@ -233,3 +971,21 @@ class Entry implements RTreeEntry {
         return true;
     }
 }
+
+/**
+ * Two doubles per entry, for the trees that write their entries out
+ */
+class EntryCodec2D implements EntryCodec<Entry> {
+    @Override
+    public int size() {return 2 * Double.BYTES;}
+
+    @Override
+    public void write(Entry entry, ByteBuffer buf) {
+        buf.putDouble(entry.getParamValue(0)).putDouble(entry.getParamValue(1));
+    }
+
+    @Override
+    public Entry read(ByteBuffer buf) {
+        return new Entry(buf.getDouble(), buf.getDouble());
+    }
+}
@@ -0,0 +1,61 @@
+import model.*;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+
+public class SplitStrategyTests {
+
+    /**
+     * Every strategy has to give the same answers, only the build and query times differ
+     */
+    @Test
+    void compareStrategies() {
+        int N = 20000; // Number of clustered entries
+        int Q = 2000; // Number of queries
+
+        Random random = new Random(5132);
+        double[][] centres = new double[20][2];
+        for (double[] c : centres) { c[0] = random.nextDouble(); c[1] = random.nextDouble(); }
+
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < N; ++i) {
+            double[] c = centres[random.nextInt(centres.length)];
+            entries.add(new Entry(c[0] + random.nextGaussian() * 0.02, c[1] + random.nextGaussian() * 0.02));
+        }
+
+        Range[][] queries = new Range[Q][];
+        for (int i = 0; i < Q; ++i) {
+            double x = random.nextDouble(), y = random.nextDouble();
+            queries[i] = new Range[]{new Range<>(x, x + 0.05), new Range<>(y, y + 0.05)};
+        }
+
+        SplitStrategy[] strategies = {new LinearSplit(), new QuadraticSplit(), new RStarSplit()};
+        int[] expected = null;
+
+        for (SplitStrategy strategy : strategies) {
+            RTree<Entry> tree = new RTree<>(16, 6, 16, 2, RTree.Mode.GUTTMAN, strategy);
+
+            long start = System.nanoTime();
+            for (Entry e : entries) tree.insert(e);
+            double build = (System.nanoTime() - start) / 1e6;
+
+            int[] sizes = new int[Q];
+            start = System.nanoTime();
+            for (int i = 0; i < Q; ++i) sizes[i] = tree.search(queries[i]).size();
+            double query = (System.nanoTime() - start) / 1e6;
+
+            if (expected == null) {
+                // Brute force once
+                expected = new int[Q];
+                for (int i = 0; i < Q; ++i) for (Entry e : entries) if (RTreeNode.isInRange(queries[i], e)) ++expected[i];
+            }
+            assertArrayEquals(expected, sizes, "答案不对，你死定了");
+
+            System.out.printf("%s: %d insertions took %f ms, %d searches took %f ms\n",
+                    strategy.getClass().getSimpleName(), N, build, Q, query);
+        }
+    }
+}